@@ -34,12 +34,23 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public 
 final class Deflate implements Cloneable {
 
   static final private int MAX_MEM_LEVEL=9;
 
   static final private int Z_DEFAULT_COMPRESSION=-1;
+  static final private int Z_OPTIMAL_COMPRESSION=10;
 
   static final private int MAX_WBITS=15;            // 32K LZ77 window
   static final private int DEF_MEM_LEVEL=8;
@@ -63,21 +74,28 @@ final class Deflate implements Cloneable {
   static final private int STORED=0;
   static final private int FAST=1;
   static final private int SLOW=2;
+  static final private int RLE=3;   // selected by Z_RLE, not by level
+  static final private int QUICK=4;
+  static final private int MEDIUM=5;
+  static final private int OPTIMAL=6;
   static final private Config[] config_table;    
   static{
-    config_table=new Config[10];
+    config_table=new Config[11];
     //                         good  lazy  nice  chain
     config_table[0]=new Config(0,    0,    0,    0, STORED);
-    config_table[1]=new Config(4,    4,    8,    4, FAST);
+    config_table[1]=new Config(4,    4,    8,    4, QUICK);
     config_table[2]=new Config(4,    5,   16,    8, FAST);
     config_table[3]=new Config(4,    6,   32,   32, FAST);
 
-    config_table[4]=new Config(4,    4,   16,   16, SLOW);
-    config_table[5]=new Config(8,   16,   32,   32, SLOW);
-    config_table[6]=new Config(8,   16,  128,  128, SLOW);
+    config_table[4]=new Config(4,    4,   16,   16, MEDIUM);
+    config_table[5]=new Config(8,   16,   32,   32, MEDIUM);
+    config_table[6]=new Config(8,   16,  128,  128, MEDIUM);
     config_table[7]=new Config(8,   32,  128,  256, SLOW);
     config_table[8]=new Config(32, 128,  258, 1024, SLOW);
     config_table[9]=new Config(32, 258,  258, 4096, SLOW);
+
+    // beyond zlib: optimal parsing, see Optimal
+    config_table[10]=new Config(32, 258, 258, 4096, OPTIMAL);
   }
 
   static final private String[] z_errmsg = {
@@ -110,6 +128,8 @@ final class Deflate implements Cloneable {
 
   static final private int Z_FILTERED=1;
   static final private int Z_HUFFMAN_ONLY=2;
+  static final private int Z_RLE=3;
+  static final private int Z_FIXED=4;
   static final private int Z_DEFAULT_STRATEGY=0;
 
   static final private int Z_NO_FLUSH=0;
@@ -117,6 +137,7 @@ final class Deflate implements Cloneable {
   static final private int Z_SYNC_FLUSH=2;
   static final private int Z_FULL_FLUSH=3;
   static final private int Z_FINISH=4;
+  static final private int Z_BLOCK=5;
 
   static final private int Z_OK=0;
   static final private int Z_STREAM_END=1;
@@ -144,7 +165,11 @@ final class Deflate implements Cloneable {
   static final private int Z_ASCII=1;
   static final private int Z_UNKNOWN=2;
 
-  static final private int Buf_size=8*2;
+  static final private int Buf_size=8*8;
+
+  // Bytes allocated past window_size, so that the eight byte reads of
+  // match_len never run off the end of the window.
+  static final private int WIN_SLACK=8;
 
   // repeat previous bit length 3-6 times (2 bits of repeat count)
   static final private int REP_3_6=16; 
@@ -169,10 +194,25 @@ final class Deflate implements Cloneable {
 
   static final private int END_BLOCK=256;
 
+  // Every SPLIT_CHECK symbols, a block of at least SPLIT_MIN_LENGTH bytes
+  // is ended if its last symbols are unlike the others.
+  static final private int SPLIT_TYPES=10;
+  static final private int SPLIT_CHECK=512;
+  static final private int SPLIT_MIN_LENGTH=2000;
+
+  // The deflate checkpoints: what is kept of the window and the tables
+  static final private int CHECKPOINT_MAGIC=0x4a5a4443; // "JZDC"
+  static final private int CHECKPOINT_VERSION=1;
+  static final private int HISTORY_CLEARED=0; // after a Z_FULL_FLUSH
+  static final private int HISTORY_TABLES=1;  // window and hash tables
+  static final private int HISTORY_WINDOW=2;  // window only
+
   ZStream strm;   // pointer back to this zlib stream
+  Allocator allocator; // supplies window, prev, head and pending_buf
   int status;           // as the name implies
   byte[] pending_buf;   // output still pending
   int pending_buf_size; // size of pending_buf
+  ByteBuffer pending_buf_view; // little-endian view of pending_buf
   int pending_out;      // next pending byte to output to the stream
   int pending;          // nb of bytes in the pending buffer
   int wrap = 1;
@@ -195,7 +235,7 @@ final class Deflate implements Cloneable {
 
   int window_size;
   // Actual size of window: 2*wSize, except when the user input buffer
-  // is directly used as sliding window.
+  // is directly used as sliding window. WIN_SLACK more bytes are allocated.
 
   short[] prev;
   // Link to older string with same hash index. To limit the size of this
@@ -204,6 +244,17 @@ final class Deflate implements Cloneable {
 
   short[] head; // Heads of the hash chains or NIL.
 
+  // With memLevel >= DEF_MEM_LEVEL, 32 bit tables are used instead of prev
+  // and head. They hold window indices plus pos_base, so when the window
+  // slides only pos_base changes and the tables are left alone; the window
+  // is also made larger so that it slides less often.
+  int[] prev32;
+  int[] head32;
+  int pos_base;
+
+  // Little-endian view of window, for reading several bytes at once.
+  ByteBuffer window_buf;
+
   int ins_h;          // hash index of string to be inserted
   int hash_size;      // number of elements in hash table
   int hash_bits;      // log2(hash_size)
@@ -244,7 +295,7 @@ final class Deflate implements Cloneable {
   // greater than this length. This saves time but degrades compression.
   // max_insert_length is used only for compression levels <= 3.
 
-  int level;    // compression level (1..9)
+  int level;    // compression level (1..10)
   int strategy; // favor or force Huffman coding
 
   // Use a faster search when the previous match is longer than this
@@ -253,10 +304,25 @@ final class Deflate implements Cloneable {
   // Stop searching when current match exceeds this
   int nice_match;
 
+  // Parameters set by deflateTune, used instead of config_table[level]
+  // until the level is changed.
+  Config tuned;
+
+  // The parser of deflate_optimal, with the symbols it has yet to send
+  Optimal opt;
+
+  DeflaterSnapshot snapshot; // the snapshot of this stream, if any
+  DeflaterSnapshot journal;  // the snapshot, while it journals the tables
+
   short[] dyn_ltree;       // literal and length tree
   short[] dyn_dtree;       // distance tree
   short[] bl_tree;         // Huffman tree for bit lengths
 
+  // dyn_ltree and dyn_dtree packed by Tree.gen_enc for compress_block
+  int[] lit_enc;
+  int[] len_enc;
+  int[] dist_enc;
+
   Tree l_desc=new Tree();  // desc for literal tree
   Tree d_desc=new Tree();  // desc for distance tree
   Tree bl_desc=new Tree(); // desc for bit length tree
@@ -275,8 +341,6 @@ final class Deflate implements Cloneable {
   // Depth of each subtree used as tie breaker for trees of equal frequency
   byte[] depth=new byte[2*L_CODES+1];
 
-  int l_buf;               // index for literals or lengths */
-
   // Size of match buffer for literals/lengths.  There are 4 reasons for
   // limiting lit_bufsize to 64K:
   //   - frequencies can be kept in 16 bit counters
@@ -296,13 +360,23 @@ final class Deflate implements Cloneable {
   //   - I can't count above 4
   int lit_bufsize;
 
-  int last_lit;      // running index in l_buf
+  int last_lit;      // number of symbols in sym_buf
 
-  // Buffer for distances. To simplify the code, d_buf and l_buf have
-  // the same number of elements. To use different lengths, an extra flag
-  // array would be necessary.
+  // Statistics for ending a block where the data changes: the symbols of
+  // the block are counted in SPLIT_TYPES coarse classes (four by the high
+  // bits of a literal, each by its low bit, and short or long matches),
+  // those of the current block in split_obs and the last ones, not yet
+  // compared with them, in split_new_obs.
+  boolean split_blocks; // set if blocks may be ended early
+  int[] split_obs;
+  int[] split_new_obs;
+  int split_num_obs;
+  int split_num_new_obs;
 
-  int d_buf;         // index of pendig_buf
+  // Buffer for the symbols, three bytes each: the distance (low byte
+  // first, 0 for a literal) and the literal or match length-MIN_MATCH.
+
+  int sym_buf;       // index of pendig_buf
 
   int opt_len;        // bit length of current block with optimal trees
   int static_len;     // bit length of current block with static trees
@@ -310,35 +384,47 @@ final class Deflate implements Cloneable {
   int last_eob_len;   // bit length of EOB code for last block
 
   // Output buffer. bits are inserted starting at the bottom (least
-  // significant bits).
-  short bi_buf;
+  // significant bits), and it is written out eight bytes at a time.
+  long bi_buf;
 
-  // Number of valid bits in bi_buf.  All bits above the last valid bit
-  // are always zero.
+  // Number of valid bits in bi_buf, less than Buf_size.  All bits above
+  // the last valid bit are always zero.
   int bi_valid;
 
+  // Static block left open by deflate_quick across calls: 0 if none,
+  // 1 if it is not the last block, 2 if it is the last one.
+  int block_open;
+
   GZIPHeader gheader = null;
 
   Deflate(ZStream strm){
     this.strm=strm;
+    this.allocator=strm.allocator;
     dyn_ltree=new short[HEAP_SIZE*2];
     dyn_dtree=new short[(2*D_CODES+1)*2]; // distance tree
     bl_tree=new short[(2*BL_CODES+1)*2];  // Huffman tree for bit lengths
+    lit_enc=new int[LITERALS+1];
+    len_enc=new int[256];
+    dist_enc=new int[D_CODES];
+    split_obs=new int[SPLIT_TYPES];
+    split_new_obs=new int[SPLIT_TYPES];
   }
 
   void lm_init() {
-    window_size=2*w_size;
+    window_size=window.length-WIN_SLACK;
 
-    head[hash_size-1]=0;
-    for(int i=0; i<hash_size-1; i++){
-      head[i]=0;
-    }
+    pos_base=0;
+    clear_hash();
 
-    // Set the default configuration parameters:
-    max_lazy_match   = Deflate.config_table[level].max_lazy;
-    good_match       = Deflate.config_table[level].good_length;
-    nice_match       = Deflate.config_table[level].nice_length;
-    max_chain_length = Deflate.config_table[level].max_chain;
+    // Set the default configuration parameters, or those of deflateTune:
+    Config config = tuned != null ? tuned : config_table[level];
+    max_lazy_match   = config.max_lazy;
+    good_match       = config.good_length;
+    nice_match       = config.nice_length;
+    max_chain_length = config.max_chain;
+    // fixed trees gain nothing from a new block
+    split_blocks = block_func(level, strategy) != OPTIMAL &&
+                   strategy != Z_FIXED;
 
     strstart = 0;
     block_start = 0;
@@ -346,6 +432,86 @@ final class Deflate implements Cloneable {
     match_length = prev_length = MIN_MATCH-1;
     match_available = 0;
     ins_h = 0;
+    if(opt != null) opt.reset();
+  }
+
+  // Empty the hash chains.
+  void clear_hash(){
+    if(journal != null){
+      journal.clear(this);
+      return;
+    }
+    if(head32!=null){
+      for(int i=0; i<hash_size; i++)
+	head32[i]=0;
+    }
+    else{
+      for(int i=0; i<hash_size; i++)
+	head[i]=0;
+    }
+  }
+
+  // Insert the string at window index pos, whose hash index is h, and
+  // return the previous head of its hash chain as a window index. The
+  // result is 0 or out of reach of any match if there was none.
+  final int insert_string(int h, int pos){
+    int hash_head;
+    if(journal != null) journal.journal(this, h, pos);
+    if(head32!=null){
+      hash_head=head32[h]-pos_base;
+      prev32[pos&w_mask]=head32[h];
+      head32[h]=pos+pos_base;
+    }
+    else{
+      hash_head=(head[h]&0xffff);
+      prev[pos&w_mask]=head[h];
+      head[h]=(short)pos;
+    }
+    return hash_head;
+  }
+
+  // Update the hash tables after the window has moved down by n bytes.
+  void slide_hash(int n){
+    int m, p;
+
+    if(head32!=null){
+      pos_base+=n;
+      if(pos_base <= Integer.MAX_VALUE-window_size) return;
+
+      // Rebase the positions, once in 2GB of input, before they overflow.
+      for(p=0; p<hash_size; p++){
+	m=head32[p]-pos_base;
+	head32[p]=(m>0 ? m : 0);
+      }
+      for(p=0; p<w_size; p++){
+	m=prev32[p]-pos_base;
+	prev32[p]=(m>0 ? m : 0);
+      }
+      pos_base=0;
+      return;
+    }
+
+    // Slide the hash table (could be avoided with 32 bit values
+    // at the expense of memory usage). We slide even when level == 0
+    // to keep the hash table consistent if we switch back to level > 0
+    // later. (Using level 0 permanently is not an optimal usage of
+    // zlib, so we don't care about this pathological case.)
+
+    p=hash_size;
+    do {
+      m = (head[--p]&0xffff);
+      head[p]=(m>=n ? (short)(m-n) : 0);
+    }
+    while (p != 0);
+
+    p = w_size;
+    do {
+      m = (prev[--p]&0xffff);
+      prev[p] = (m >= n ? (short)(m-n) : 0);
+      // If n is not on any hash chain, prev[n] is garbage but
+      // its value will never be used.
+    }
+    while (p != 0);
   }
 
   // Initialize the tree data structures for a new zlib stream.
@@ -363,6 +529,7 @@ final class Deflate implements Cloneable {
     bi_buf = 0;
     bi_valid = 0;
     last_eob_len = 8; // enough lookahead for inflate
+    block_open = 0;
 
     // Initialize the first block of the first file:
     init_block();
@@ -377,6 +544,9 @@ final class Deflate implements Cloneable {
     dyn_ltree[END_BLOCK*2] = 1;
     opt_len = static_len = 0;
     last_lit = matches = 0;
+
+    for(int i = 0; i < SPLIT_TYPES; i++) split_obs[i] = split_new_obs[i] = 0;
+    split_num_obs = split_num_new_obs = 0;
   }
 
   // Restore the heap property by moving down the tree starting at node k,
@@ -567,6 +737,10 @@ final class Deflate implements Cloneable {
     put_byte((byte)(w/*&0xff*/));
     put_byte((byte)(w>>>8));
   }
+  final void put_long(long l){
+    pending_buf_view.putLong(pending, l);
+    pending+=8;
+  }
   final void putShortMSB(int b){
     put_byte((byte)(b>>8));
     put_byte((byte)(b/*&0xff*/));
@@ -577,19 +751,16 @@ final class Deflate implements Cloneable {
     send_bits((tree[c2]&0xffff), (tree[c2+1]&0xffff));
   }
 
-  void send_bits(int value, int length){
-    int len = length;
-    if (bi_valid > (int)Buf_size - len) {
-      int val = value;
-//      bi_buf |= (val << bi_valid);
-      bi_buf |= ((val << bi_valid)&0xffff);
-      put_short(bi_buf);
-      bi_buf = (short)(val >>> (Buf_size - bi_valid));
-      bi_valid += len - Buf_size;
+  // Send value, which must fit in length (at most 63) bits.
+  final void send_bits(long value, int length){
+    int total = bi_valid + length;
+    bi_buf |= value << bi_valid;
+    if (total < Buf_size) {
+      bi_valid = total;
     } else {
-//      bi_buf |= (value) << bi_valid;
-      bi_buf |= (((value) << bi_valid)&0xffff);
-      bi_valid += len;
+      put_long(bi_buf);
+      bi_buf = value >>> (Buf_size - bi_valid);
+      bi_valid = total - Buf_size;
     }
   }
 
@@ -627,14 +798,15 @@ final class Deflate implements Cloneable {
 		     int lc // match length-MIN_MATCH or unmatched char (if dist==0)
 		     ){
 
-    pending_buf[d_buf+last_lit*2] = (byte)(dist>>>8);
-    pending_buf[d_buf+last_lit*2+1] = (byte)dist;
-
-    pending_buf[l_buf+last_lit] = (byte)lc; last_lit++;
+    int sx = sym_buf+last_lit*3;
+    pending_buf[sx] = (byte)dist;
+    pending_buf[sx+1] = (byte)(dist>>>8);
+    pending_buf[sx+2] = (byte)lc; last_lit++;
 
     if (dist == 0) {
       // lc is the unmatched char
       dyn_ltree[lc*2]++;
+      split_new_obs[((lc>>>5)&6)|(lc&1)]++;
     } 
     else {
       matches++;
@@ -642,8 +814,12 @@ final class Deflate implements Cloneable {
       dist--;             // dist = match distance - 1
       dyn_ltree[(Tree._length_code[lc]+LITERALS+1)*2]++;
       dyn_dtree[Tree.d_code(dist)*2]++;
+      split_new_obs[lc < 9-MIN_MATCH ? 8 : 9]++;
     }
 
+    if (++split_num_new_obs == SPLIT_CHECK && split_blocks &&
+	split_block()) return true;
+
     if ((last_lit & 0x1fff) == 0 && level > 2) {
       // Compute an upper bound for the compressed length
       int out_length = last_lit*8;
@@ -663,51 +839,91 @@ final class Deflate implements Cloneable {
     // 64K-1 bytes.
   }
 
-  // Send the block data compressed using the given Huffman trees
-  void compress_block(short[] ltree, short[] dtree){
+  // Compare the last SPLIT_CHECK symbols with the others of the block and
+  // return true if the block should end here, because their classes are
+  // distributed too differently. Otherwise they join the others. This is
+  // the heuristic of libdeflate, which finds most of the points where a
+  // new Huffman code pays off, at the cost of a few multiplications per
+  // check.
+  boolean split_block(){
+    int[] obs = split_obs;
+    int[] new_obs = split_new_obs;
+    int num_obs = split_num_obs;
+    int num_new_obs = split_num_new_obs;
+    int block_length = strstart - block_start;
+
+    if(num_obs > 0 && block_length >= SPLIT_MIN_LENGTH){
+      int total_delta = 0;
+      for(int i = 0; i < SPLIT_TYPES; i++){
+	int expected = obs[i] * num_new_obs;
+	int actual = new_obs[i] * num_obs;
+	total_delta += actual > expected ? actual - expected : expected - actual;
+      }
+      int num_items = num_obs + num_new_obs;
+      // libdeflate uses 200/512 and 10000 bytes, but its blocks may hold
+      // far more symbols than lit_bufsize.
+      int cutoff = num_new_obs * 150 / 512 * num_obs;
+      // Require a larger difference while the block is still short.
+      if(num_items < 8192)
+	cutoff += (int)((long)cutoff * (8192 - num_items) / 8192);
+      if(total_delta + (block_length / 4096) * num_obs >= cutoff)
+	return true;
+    }
+
+    for(int i = 0; i < SPLIT_TYPES; i++){
+      obs[i] += new_obs[i];
+      new_obs[i] = 0;
+    }
+    split_num_obs = num_obs + num_new_obs;
+    split_num_new_obs = 0;
+    return false;
+  }
+
+  // Send the block data compressed using the codes packed by Tree.gen_enc
+  void compress_block(int[] lit_enc, int[] len_enc, int[] dist_enc){
     int  dist;      // distance of matched string
     int lc;         // match length or unmatched char (if dist == 0)
-    int lx = 0;     // running index in l_buf
-    int code;       // the code to send
-    int extra;      // number of extra bits to send
+    int sx = sym_buf; // running index in sym_buf
+    int sym_end = sym_buf+last_lit*3;
+    int e;          // packed code to send
 
     if (last_lit != 0){
       do{
-	dist=((pending_buf[d_buf+lx*2]<<8)&0xff00)|
-	  (pending_buf[d_buf+lx*2+1]&0xff);
-	lc=(pending_buf[l_buf+lx])&0xff; lx++;
+	dist=(pending_buf[sx]&0xff)|
+	  ((pending_buf[sx+1]<<8)&0xff00);
+	lc=(pending_buf[sx+2])&0xff; sx+=3;
 
 	if(dist == 0){
-	  send_code(lc, ltree); // send a literal byte
+	  e = lit_enc[lc];
+	  send_bits(e&0xffffff, e>>>24); // send a literal byte
 	} 
 	else{
 	  // Here, lc is the match length - MIN_MATCH
-	  code = Tree._length_code[lc];
-
-	  send_code(code+LITERALS+1, ltree); // send the length code
-	  extra = Tree.extra_lbits[code];
-	  if(extra != 0){
-	    lc -= Tree.base_length[code];
-	    send_bits(lc, extra);       // send the extra length bits
-	  }
-	  dist--; // dist is now the match distance - 1
-	  code = Tree.d_code(dist);
-
-	  send_code(code, dtree);       // send the distance code
-	  extra = Tree.extra_dbits[code];
-	  if (extra != 0) {
-	    dist -= Tree.base_dist[code];
-	    send_bits(dist, extra);   // send the extra distance bits
-	  }
+	  send_match(lc, dist-1, len_enc, dist_enc);
 	} // literal or match pair ?
 
-	// Check that the overlay between pending_buf and d_buf+l_buf is ok:
+	// Check that the overlay between pending_buf and sym_buf is ok:
       }
-      while (lx < last_lit);
+      while (sx < sym_end);
     }
 
-    send_code(END_BLOCK, ltree);
-    last_eob_len = ltree[END_BLOCK*2+1];
+    e = lit_enc[END_BLOCK];
+    send_bits(e&0xffffff, e>>>24);
+    last_eob_len = e>>>24;
+  }
+
+  // Send a match as one string of bits: the length code with its extra
+  // bits, then the distance code with its extra bits (at most 48 bits).
+  final void send_match(int lc,   // match length-MIN_MATCH
+			int dist, // match distance-1
+			int[] len_enc, int[] dist_enc){
+    int le = len_enc[lc];
+    int code = Tree.d_code(dist);
+    int de = dist_enc[code];
+    int dbits = (de&0xffff) |
+      ((dist - Tree.base_dist[code]) << ((de>>>16)&0xff));
+    send_bits((le&0xffffff) | ((long)dbits << (le>>>24)),
+	      (le>>>24) + (de>>>24));
   }
 
   // Set the data type to ASCII or BINARY, using a crude approximation:
@@ -726,12 +942,7 @@ final class Deflate implements Cloneable {
 
   // Flush the bit buffer, keeping at most 7 bits in it.
   void bi_flush(){
-    if (bi_valid == 16) {
-      put_short(bi_buf);
-      bi_buf=0;
-      bi_valid=0;
-    }
-    else if (bi_valid >= 8) {
+    while (bi_valid >= 8) {
       put_byte((byte)bi_buf);
       bi_buf>>>=8;
       bi_valid-=8;
@@ -740,10 +951,10 @@ final class Deflate implements Cloneable {
 
   // Flush the bit buffer and align the output on a byte boundary
   void bi_windup(){
-    if (bi_valid > 8) {
-      put_short(bi_buf);
-    } else if (bi_valid > 0) {
+    while (bi_valid > 0) {
       put_byte((byte)bi_buf);
+      bi_buf>>>=8;
+      bi_valid-=8;
     }
     bi_buf = 0;
     bi_valid = 0;
@@ -788,13 +999,14 @@ final class Deflate implements Cloneable {
   // window to pending_buf.
   int deflate_stored(int flush){
     // Stored blocks are limited to 0xffff bytes, pending_buf is limited
-    // to pending_buf_size, and each stored block has a 5 byte header:
+    // to pending_buf_size, and each stored block has a 5 byte header,
+    // after up to 2 bytes of bits left over from the previous block:
 
     int max_block_size = 0xffff;
     int max_start;
 
-    if(max_block_size > pending_buf_size - 5) {
-      max_block_size = pending_buf_size - 5;
+    if(max_block_size > pending_buf_size - 7) {
+      max_block_size = pending_buf_size - 7;
     }
 
     // Copy as much as possible from input to output:
@@ -855,7 +1067,15 @@ final class Deflate implements Cloneable {
     int max_blindex = 0;      // index of last bit length code of non zero freq
 
     // Build the Huffman trees unless a stored block is forced
-    if(level > 0) {
+    if(level > 0 && strategy == Z_FIXED) {
+      if(data_type == Z_UNKNOWN) set_data_type();
+
+      // Only static trees will be used, so there is no need to build the
+      // dynamic ones; just measure the block with the static trees.
+      static_len = static_block_len();
+      opt_lenb=static_lenb=(static_len+3+7)>>>3;
+    }
+    else if(level > 0) {
       // Check if the file is ascii or binary
       if(data_type == Z_UNKNOWN) set_data_type();
 
@@ -881,23 +1101,26 @@ final class Deflate implements Cloneable {
       opt_lenb=static_lenb=stored_len+5; // force a stored block
     }
 
-    if(stored_len+4<=opt_lenb && buf != -1){
+    if(stored_len+4<=opt_lenb && buf != -1 && stored_len <= 0xffff){
       // 4: two words for the lengths
       // The test buf != NULL is only necessary if LIT_BUFSIZE > WSIZE.
       // Otherwise we can't have processed more than WSIZE input bytes since
       // the last block flush, because compression would have been
       // successful. If LIT_BUFSIZE <= WSIZE, it is never too late to
-      // transform a block into a stored block.
+      // transform a block into a stored block. A larger window may hold
+      // more than a stored block can take, though.
       _tr_stored_block(buf, stored_len, eof);
     }
-    else if(static_lenb == opt_lenb){
+    else if(strategy == Z_FIXED || static_lenb == opt_lenb){
       send_bits((STATIC_TREES<<1)+(eof?1:0), 3);
-      compress_block(StaticTree.static_ltree, StaticTree.static_dtree);
+      compress_block(StaticTree.static_lit_enc, StaticTree.static_len_enc,
+		     StaticTree.static_dist_enc);
     }
     else{
       send_bits((DYN_TREES<<1)+(eof?1:0), 3);
       send_all_trees(l_desc.max_code+1, d_desc.max_code+1, max_blindex+1);
-      compress_block(dyn_ltree, dyn_dtree);
+      Tree.gen_enc(dyn_ltree, dyn_dtree, lit_enc, len_enc, dist_enc);
+      compress_block(lit_enc, len_enc, dist_enc);
     }
 
     // The above check is made mod 2^32, for files larger than 512 MB
@@ -910,6 +1133,25 @@ final class Deflate implements Cloneable {
     }
   }
 
+  // Compute the bit length of the current block with the static trees,
+  // from the frequencies tallied in dyn_ltree and dyn_dtree.
+  int static_block_len(){
+    int len = 0;
+    int n;
+    for(n = 0; n < L_CODES; n++){
+      int f = dyn_ltree[n*2];
+      if(f == 0) continue;
+      int xbits = n > LITERALS ? Tree.extra_lbits[n-LITERALS-1] : 0;
+      len += f * (StaticTree.static_ltree[n*2+1] + xbits);
+    }
+    for(n = 0; n < D_CODES; n++){
+      int f = dyn_dtree[n*2];
+      if(f == 0) continue;
+      len += f * (StaticTree.static_dtree[n*2+1] + Tree.extra_dbits[n]);
+    }
+    return len;
+  }
+
   // Fill the window when the lookahead becomes insufficient.
   // Updates strstart and lookahead.
   //
@@ -919,8 +1161,7 @@ final class Deflate implements Cloneable {
   //    performed for at least two bytes (required for the zip translate_eol
   //    option -- not supported here).
   void fill_window(){
-    int n, m;
-    int p;
+    int n;
     int more;    // Amount of free space at the end of the window.
 
     do{
@@ -938,36 +1179,18 @@ final class Deflate implements Cloneable {
 	// If the window is almost full and there is insufficient lookahead,
 	// move the upper half to the lower one to make room in the upper half.
       }
-      else if(strstart >= w_size+ w_size-MIN_LOOKAHEAD) {
-	System.arraycopy(window, w_size, window, 0, w_size);
-	match_start-=w_size;
-	strstart-=w_size; // we now have strstart >= MAX_DIST
-	block_start-=w_size;
-
-	// Slide the hash table (could be avoided with 32 bit values
-	// at the expense of memory usage). We slide even when level == 0
-	// to keep the hash table consistent if we switch back to level > 0
-	// later. (Using level 0 permanently is not an optimal usage of
-	// zlib, so we don't care about this pathological case.)
-
-	n = hash_size;
-	p=n;
-	do {
-	  m = (head[--p]&0xffff);
-	  head[p]=(m>=w_size ? (short)(m-w_size) : 0);
-	}
-	while (--n != 0);
-
-	n = w_size;
-	p = n;
-	do {
-	  m = (prev[--p]&0xffff);
-	  prev[p] = (m >= w_size ? (short)(m-w_size) : 0);
-	  // If n is not on any hash chain, prev[n] is garbage but
-	  // its value will never be used.
-	}
-	while (--n!=0);
-	more += w_size;
+      else if(strstart >= window_size-MIN_LOOKAHEAD) {
+	// Keep the last WSIZE bytes; the distance moved is a multiple of
+	// WSIZE, so that window indices modulo WSIZE are unchanged.
+	n = window_size-w_size;
+	if(snapshot != null) snapshot.slide(this);
+	System.arraycopy(window, n, window, 0, w_size);
+	match_start-=n;
+	strstart-=n; // we now have strstart >= MAX_DIST
+	block_start-=n;
+
+	slide_hash(n);
+	more += n;
       }
 
       if (strm.avail_in == 0) return;
@@ -980,7 +1203,7 @@ final class Deflate implements Cloneable {
       // In the BIG_MEM or MMAP case (not yet supported),
       //   window_size == input_size + MIN_LOOKAHEAD  &&
       //   strstart + s->lookahead <= input_size => more >= MIN_LOOKAHEAD.
-      // Otherwise, window_size == 2*WSIZE so more >= 2.
+      // Otherwise, window_size >= 2*WSIZE so more >= 2.
       // If there was sliding, more >= WSIZE. So in all cases, more >= 2.
 
       n = strm.read_buf(window, strstart + lookahead, more);
@@ -997,6 +1220,119 @@ final class Deflate implements Cloneable {
     while (lookahead < MIN_LOOKAHEAD && strm.avail_in != 0);
   }
 
+  // Start a block coded with the static trees, written as it goes by
+  // deflate_quick.
+  void quick_start_block(boolean last){
+    send_bits((STATIC_TREES<<1)+(last?1:0), 3);
+    block_open = last ? 2 : 1;
+  }
+
+  // Close the block opened by quick_start_block.
+  void quick_end_block(){
+    send_code(END_BLOCK, StaticTree.static_ltree);
+    last_eob_len = 7;
+    block_open = 0;
+  }
+
+  // Send a match with the static trees, bypassing the literal buffer.
+  void send_static_match(int lc,  // match length-MIN_MATCH
+                         int dist // distance of matched string
+                         ){
+    send_match(lc, dist-1,
+	       StaticTree.static_len_enc, StaticTree.static_dist_enc);
+  }
+
+  // Compress as much as possible from the input stream, return the current
+  // block state.
+  // This is the fastest of the compression functions: the hash table is
+  // probed once per position and only the head of each chain is tried,
+  // matches are taken greedily, and symbols are coded
+  // with the static trees straight into the bit buffer, so nothing is
+  // tallied and no trees are built. The current block is left open across
+  // calls until a flush is requested. It is used for compression level 1.
+  int deflate_quick(int flush){
+    int hash_head;  // the only candidate for a match
+    int h;          // hash index of the current string
+    int scan;
+
+    while(true){
+      // Keep room in pending_buf for the bits held in bi_buf, a block
+      // start, end and the longest match code; pending output must be
+      // gone before writing more.
+      if(pending_buf_size - pending < 24){
+	strm.flush_pending();
+	if(pending != 0) return NeedMore;
+      }
+
+      // Make sure that we always have enough lookahead, except
+      // at the end of the input file. We need MAX_MATCH bytes
+      // for the next match, plus MIN_MATCH bytes to insert the
+      // string following the next match.
+      if(lookahead < MIN_LOOKAHEAD){
+	fill_window();
+	if(lookahead < MIN_LOOKAHEAD && flush == Z_NO_FLUSH){
+	  block_start = strstart;
+	  strm.flush_pending();
+	  return NeedMore;
+	}
+	if(lookahead == 0) break; // flush the current block
+      }
+
+      if(block_open == 0){
+	quick_start_block(flush == Z_FINISH);
+      }
+      else if(block_open == 1 && flush == Z_FINISH){
+	quick_end_block();
+	quick_start_block(true);
+      }
+
+      if(lookahead >= MIN_MATCH){
+	// The same hash as ins_h, computed afresh because strings inside
+	// matches are never inserted.
+	h=((((window[strstart]&0xff)<<hash_shift)^
+	    (window[strstart+1]&0xff))<<hash_shift)^
+	  (window[strstart+2]&0xff);
+	h&=hash_mask;
+	hash_head=insert_string(h, strstart);
+
+	if(hash_head!=0 && hash_head < strstart &&
+	   strstart-hash_head <= w_size-MIN_LOOKAHEAD){
+	  scan = strstart + match_len(strstart, hash_head,
+				      lookahead < MAX_MATCH ? lookahead : MAX_MATCH);
+	  if(scan - strstart >= MIN_MATCH){
+	    send_static_match(scan - strstart - MIN_MATCH, strstart - hash_head);
+	    lookahead -= scan - strstart;
+	    strstart = scan;
+	    continue;
+	  }
+	}
+      }
+
+      // No match, output a literal byte
+      int e = StaticTree.static_lit_enc[window[strstart]&0xff];
+      send_bits(e&0xffffff, e>>>24);
+      lookahead--;
+      strstart++;
+    }
+
+    block_start = strstart;
+    if(flush == Z_FINISH){
+      if(block_open != 2){
+	if(block_open != 0) quick_end_block();
+	quick_start_block(true);
+      }
+      quick_end_block();
+      bi_windup();
+      strm.flush_pending();
+      return strm.avail_out == 0 ? FinishStarted : FinishDone;
+    }
+
+    if(block_open != 0) quick_end_block();
+    strm.flush_pending();
+    if(strm.avail_out==0) return NeedMore;
+    return BlockDone;
+  }
+
   // Compress as much as possible from the input stream, return the current
   // block state.
   // This function does not perform lazy evaluation of matches and inserts
@@ -1022,20 +1358,18 @@ final class Deflate implements Cloneable {
 
       // Insert the string window[strstart .. strstart+2] in the
       // dictionary, and set hash_head to the head of the hash chain:
+      hash_head = 0;
       if(lookahead >= MIN_MATCH){
 	ins_h=(((ins_h)<<hash_shift)^(window[(strstart)+(MIN_MATCH-1)]&0xff))&hash_mask;
 
-//	prev[strstart&w_mask]=hash_head=head[ins_h];
-        hash_head=(head[ins_h]&0xffff);
-	prev[strstart&w_mask]=head[ins_h];
-	head[ins_h]=(short)strstart;
+	hash_head=insert_string(ins_h, strstart);
       }
 
       // Find the longest match, discarding those <= prev_length.
       // At this point we have always match_length < MIN_MATCH
 
-      if(hash_head!=0L && 
-	 ((strstart-hash_head)&0xffff) <= w_size-MIN_LOOKAHEAD
+      if(hash_head!=0L && hash_head < strstart &&
+	 strstart-hash_head <= w_size-MIN_LOOKAHEAD
 	 ){
 	// To simplify the code, we prevent matches with the string
 	// of window index 0 (in particular we have to avoid a match
@@ -1061,10 +1395,7 @@ final class Deflate implements Cloneable {
 	    strstart++;
 
 	    ins_h=((ins_h<<hash_shift)^(window[(strstart)+(MIN_MATCH-1)]&0xff))&hash_mask;
-//	    prev[strstart&w_mask]=hash_head=head[ins_h];
-	    hash_head=(head[ins_h]&0xffff);
-	    prev[strstart&w_mask]=head[ins_h];
-	    head[ins_h]=(short)strstart;
+	    hash_head=insert_string(ins_h, strstart);
 
 	    // strstart never exceeds WSIZE-MAX_MATCH, so there are
 	    // always MIN_MATCH bytes ahead.
@@ -1129,13 +1460,11 @@ final class Deflate implements Cloneable {
 
       // Insert the string window[strstart .. strstart+2] in the
       // dictionary, and set hash_head to the head of the hash chain:
-
+      // A head left from the last pass may predate a window slide.
+      hash_head = 0;
       if(lookahead >= MIN_MATCH) {
 	ins_h=(((ins_h)<<hash_shift)^(window[(strstart)+(MIN_MATCH-1)]&0xff)) & hash_mask;
-//	prev[strstart&w_mask]=hash_head=head[ins_h];
-	hash_head=(head[ins_h]&0xffff);
-	prev[strstart&w_mask]=head[ins_h];
-	head[ins_h]=(short)strstart;
+	hash_head=insert_string(ins_h, strstart);
       }
 
       // Find the longest match, discarding those <= prev_length.
@@ -1143,7 +1472,8 @@ final class Deflate implements Cloneable {
       match_length = MIN_MATCH-1;
 
       if (hash_head != 0 && prev_length < max_lazy_match &&
-	  ((strstart-hash_head)&0xffff) <= w_size-MIN_LOOKAHEAD
+	  hash_head < strstart &&
+	  strstart-hash_head <= w_size-MIN_LOOKAHEAD
 	  ){
 	// To simplify the code, we prevent matches with the string
 	// of window index 0 (in particular we have to avoid a match
@@ -1183,10 +1513,7 @@ final class Deflate implements Cloneable {
 	do{
 	  if(++strstart <= max_insert) {
 	    ins_h=(((ins_h)<<hash_shift)^(window[(strstart)+(MIN_MATCH-1)]&0xff))&hash_mask;
-	    //prev[strstart&w_mask]=hash_head=head[ins_h];
-	    hash_head=(head[ins_h]&0xffff);
-	    prev[strstart&w_mask]=head[ins_h];
-	    head[ins_h]=(short)strstart;
+	    hash_head=insert_string(ins_h, strstart);
 	  }
 	}
 	while(--prev_length != 0);
@@ -1236,6 +1563,277 @@ final class Deflate implements Cloneable {
     return flush == Z_FINISH ? FinishDone : BlockDone;
   }
 
+  // Compress as much as possible from the input stream, return the current
+  // block state.
+  // This is a cheaper form of the lazy evaluation done by deflate_slow:
+  // only a match shorter than max_lazy_match is checked against the match
+  // at the next position, and only once (the lazy evaluation is never
+  // chained). As in deflate_fast, the strings inside a match are inserted in
+  // the hash table only if the match is not longer than nice_match.
+  // It is used for the medium compression levels.
+  int deflate_medium(int flush){
+    int hash_head = 0;   // head of the hash chain
+    int inserted;        // strings of the current match already inserted
+    int cur_length, cur_start;
+    boolean bflush;      // set if current block must be flushed
+
+    while(true){
+      // Make sure that we always have enough lookahead, except
+      // at the end of the input file. We need MAX_MATCH bytes
+      // for the next match, plus MIN_MATCH bytes to insert the
+      // string following the next match.
+      if(lookahead < MIN_LOOKAHEAD){
+	fill_window();
+	if(lookahead < MIN_LOOKAHEAD && flush == Z_NO_FLUSH){
+	  return NeedMore;
+	}
+	if(lookahead == 0) break; // flush the current block
+      }
+
+      // Insert the string window[strstart .. strstart+2] in the
+      // dictionary, and set hash_head to the head of the hash chain:
+      hash_head = 0;
+      if(lookahead >= MIN_MATCH){
+	ins_h=(((ins_h)<<hash_shift)^(window[(strstart)+(MIN_MATCH-1)]&0xff))&hash_mask;
+	hash_head=insert_string(ins_h, strstart);
+      }
+
+      // Find the longest match, discarding those <= prev_length.
+      prev_length = match_length = MIN_MATCH-1;
+      if(hash_head != 0 && hash_head < strstart &&
+	 strstart-hash_head <= w_size-MIN_LOOKAHEAD &&
+	 strategy != Z_HUFFMAN_ONLY){
+	match_length = longest_match(hash_head);
+	// longest_match() sets match_start
+
+	if (match_length <= 5 && (strategy == Z_FILTERED ||
+				  (match_length == MIN_MATCH &&
+				   strstart - match_start > 4096))) {
+	  match_length = MIN_MATCH-1;
+	}
+      }
+
+      if(match_length < MIN_MATCH){
+	// No match, output a literal byte
+	bflush=_tr_tally(0, window[strstart]&0xff);
+	lookahead--;
+	strstart++;
+	match_length = 0;
+      }
+      else{
+	bflush = false;
+	inserted = 1;
+
+	// If the match is short, see if the next position does better.
+	if(match_length < max_lazy_match && lookahead > match_length){
+	  cur_length = prev_length = match_length;
+	  cur_start = match_start;
+	  strstart++;
+	  lookahead--;
+
+	  ins_h=(((ins_h)<<hash_shift)^(window[(strstart)+(MIN_MATCH-1)]&0xff))&hash_mask;
+	  hash_head=insert_string(ins_h, strstart);
+
+	  if(hash_head != 0 && hash_head < strstart &&
+	     strstart-hash_head <= w_size-MIN_LOOKAHEAD){
+	    match_length = longest_match(hash_head);
+	    if(match_length <= 5 && strategy == Z_FILTERED){
+	      match_length = cur_length;
+	    }
+	  }
+	  // deflate_fast and deflate_quick expect prev_length at MIN_MATCH-1
+	  prev_length = MIN_MATCH-1;
+
+	  if(match_length > cur_length){
+	    // Truncate the current match to a single literal
+	    bflush = _tr_tally(0, window[strstart-1]&0xff);
+	  }
+	  else{
+	    // Keep the current match; its second string is already inserted
+	    match_length = cur_length;
+	    match_start = cur_start;
+	    strstart--;
+	    lookahead++;
+	    inserted = 2;
+	  }
+	}
+
+	//        check_match(strstart, match_start, match_length);
+
+	// The literal buffer has room for one more symbol after _tr_tally
+	// asks for a flush.
+	bflush|=_tr_tally(strstart-match_start, match_length-MIN_MATCH);
+
+	lookahead -= match_length;
+
+	// Insert new strings in the hash table only if the match length
+	// is not too large. This saves time but degrades compression.
+	if(match_length <= nice_match &&
+	   lookahead >= MIN_MATCH) {
+	  match_length -= inserted;
+	  strstart += inserted-1;
+	  while(match_length-- != 0){
+	    strstart++;
+
+	    ins_h=((ins_h<<hash_shift)^(window[(strstart)+(MIN_MATCH-1)]&0xff))&hash_mask;
+	    insert_string(ins_h, strstart);
+	  }
+	  strstart++; 
+	}
+	else{
+	  strstart += match_length;
+	  ins_h = window[strstart]&0xff;
+
+	  ins_h=(((ins_h)<<hash_shift)^(window[strstart+1]&0xff))&hash_mask;
+	  // If lookahead < MIN_MATCH, ins_h is garbage, but it does not
+	  // matter since it will be recomputed at next deflate call.
+	}
+	match_length = 0;
+      }
+      if (bflush){
+	flush_block_only(false);
+	if(strm.avail_out==0) return NeedMore;
+      }
+    }
+
+    flush_block_only(flush == Z_FINISH);
+    if(strm.avail_out==0){
+      if(flush == Z_FINISH) return FinishStarted;
+      else return NeedMore;
+    }
+    return flush==Z_FINISH ? FinishDone : BlockDone;
+  }
+
+  // Compress as much as possible from the input stream, return the current
+  // block state.
+  // The input is gathered into chunks of up to w_size bytes, each parsed
+  // as a whole by Optimal and then sent in the blocks it has chosen. It is
+  // used for the optimal compression level, where time is traded for the
+  // smallest output.
+  int deflate_optimal(int flush){
+    Optimal opt = this.opt;
+    boolean bflush;     // set if current block must be flushed
+    int n;
+
+    if(opt == null){
+      opt = this.opt = new Optimal();
+    }
+
+    while(true){
+      // Send the symbols of the last chunk parsed.
+      while(opt.next < opt.nsyms){
+	if(opt.next == opt.bound()){
+	  opt.next_bound++;
+	  if(last_lit != 0){
+	    flush_block_only(false);
+	    if(strm.avail_out==0) return NeedMore;
+	  }
+	}
+	int sym = opt.syms[opt.next++];
+	int dist = sym>>>8;
+	n = dist == 0 ? 1 : (sym&0xff)+MIN_MATCH;
+	strstart += n;
+	lookahead -= n;
+	bflush = _tr_tally(dist, sym&0xff);
+	if(bflush){
+	  flush_block_only(false);
+	  if(strm.avail_out==0) return NeedMore;
+	}
+      }
+
+      // Gather a full chunk, except at the end of the input. We need
+      // MIN_LOOKAHEAD bytes past the chunk unless no more input will
+      // follow, so that its last matches can be found in full.
+      if(lookahead < w_size+MIN_LOOKAHEAD){
+	fill_window();
+	if(lookahead < w_size+MIN_LOOKAHEAD && strm.avail_in == 0 &&
+	   flush == Z_NO_FLUSH) {
+	  return NeedMore;
+	}
+	if(lookahead == 0) break; // flush the current block
+      }
+
+      n = lookahead;
+      if(strm.avail_in != 0 || flush == Z_NO_FLUSH) n -= MIN_LOOKAHEAD;
+      if(n > w_size) n = w_size;
+      opt.parse(this, strstart, n, strstart+lookahead);
+    }
+
+    flush_block_only(flush == Z_FINISH);
+    if(strm.avail_out==0){
+      if(flush == Z_FINISH) return FinishStarted;
+      else return NeedMore;
+    }
+    return flush == Z_FINISH ? FinishDone : BlockDone;
+  }
+
+  // For Z_RLE, simply look for runs of bytes, generating matches only of
+  // distance one. Do not maintain a hash table. (It will be regenerated if
+  // this run of deflate switches away from Z_RLE.)
+  int deflate_rle(int flush){
+    boolean bflush;         // set if current block must be flushed
+    int prev;               // byte at distance one to match
+    int scan, strend;       // scan goes up to strend for length of run
+
+    while(true){
+      // Make sure that we always have enough lookahead, except
+      // at the end of the input file. We need MAX_MATCH bytes
+      // for the longest encodable run.
+      if(lookahead <= MAX_MATCH){
+	fill_window();
+	if(lookahead <= MAX_MATCH && flush == Z_NO_FLUSH){
+	  return NeedMore;
+	}
+	if(lookahead == 0) break; // flush the current block
+      }
+
+      // See how many times the previous byte repeats
+      match_length = 0;
+      if(lookahead >= MIN_MATCH && strstart > 0){
+	scan = strstart - 1;
+	prev = window[scan];
+	if(prev == window[++scan] && prev == window[++scan] &&
+	   prev == window[++scan]){
+	  strend = strstart + MAX_MATCH;
+	  do {
+	  } while (prev == window[++scan] && prev == window[++scan] &&
+		   prev == window[++scan] && prev == window[++scan] &&
+		   prev == window[++scan] && prev == window[++scan] &&
+		   prev == window[++scan] && prev == window[++scan] &&
+		   scan < strend);
+	  match_length = MAX_MATCH - (strend - scan);
+	  if(match_length > lookahead)
+	    match_length = lookahead;
+	}
+      }
+
+      // Emit match if have run of MIN_MATCH or longer, else emit literal
+      if(match_length >= MIN_MATCH){
+	bflush = _tr_tally(1, match_length - MIN_MATCH);
+	lookahead -= match_length;
+	strstart += match_length;
+	match_length = 0;
+      }
+      else{
+	// No match, output a literal byte
+	bflush = _tr_tally(0, window[strstart]&0xff);
+	lookahead--;
+	strstart++;
+      }
+      if(bflush){
+	flush_block_only(false);
+	if(strm.avail_out==0) return NeedMore;
+      }
+    }
+
+    flush_block_only(flush == Z_FINISH);
+    if(strm.avail_out==0){
+      if(flush == Z_FINISH) return FinishStarted;
+      else return NeedMore;
+    }
+    return flush == Z_FINISH ? FinishDone : BlockDone;
+  }
+
   int longest_match(int cur_match){
     int chain_length = max_chain_length; // max hash chain length
     int scan = strstart;                 // current string
@@ -1250,13 +1848,15 @@ final class Deflate implements Cloneable {
     // we prevent matches with the string of window index 0.
 
     int wmask = w_mask;
+    short[] prev = this.prev;
+    int[] prev32 = this.prev32;
+    int base = pos_base;
 
-    int strend = strstart + MAX_MATCH;
-    byte scan_end1 = window[scan+best_len-1];
-    byte scan_end = window[scan+best_len];
-
-    // The code is optimized for HASH_BITS >= 8 and MAX_MATCH-2 multiple of 16.
-    // It is easy to get rid of this optimization if necessary.
+    // The first two bytes of the string, and the two bytes that a longer
+    // match must end with, each loaded as one little-endian short.
+    ByteBuffer wb = window_buf;
+    short scan_start = wb.getShort(scan);
+    short scan_end = wb.getShort(scan+best_len-1);
 
     // Do not waste too much time if we already have a good match:
     if (prev_length >= good_match) {
@@ -1272,49 +1872,47 @@ final class Deflate implements Cloneable {
 
       // Skip to next match if the match length cannot increase
       // or if the match length is less than 2:
-      if (window[match+best_len]   != scan_end  ||
-	  window[match+best_len-1] != scan_end1 ||
-	  window[match]       != window[scan]     ||
-	  window[++match]     != window[scan+1])      continue;
-
-      // The check at best_len-1 can be removed because it will be made
-      // again later. (This heuristic is not always a win.)
-      // It is not necessary to compare scan[2] and match[2] since they
-      // are always equal when the other bytes match, given that
-      // the hash keys are equal and that HASH_BITS >= 8.
-      scan += 2; match++;
-
-      // We check for insufficient lookahead only every 8th comparison;
-      // the 256th check will be made at strstart+258.
-      do {
-      } while (window[++scan] == window[++match] &&
-	       window[++scan] == window[++match] &&
-	       window[++scan] == window[++match] &&
-	       window[++scan] == window[++match] &&
-	       window[++scan] == window[++match] &&
-	       window[++scan] == window[++match] &&
-	       window[++scan] == window[++match] &&
-	       window[++scan] == window[++match] &&
-	       scan < strend);
-
-      len = MAX_MATCH - (int)(strend - scan);
-      scan = strend - MAX_MATCH;
+      if (wb.getShort(match+best_len-1) != scan_end ||
+	  wb.getShort(match)            != scan_start) continue;
+
+      len = 2 + match_len(scan+2, match+2, MAX_MATCH-2);
 
       if(len>best_len) {
 	match_start = cur_match;
 	best_len = len;
 	if (len >= nice_match) break;
-	scan_end1  = window[scan+best_len-1];
-	scan_end   = window[scan+best_len];
+	scan_end   = wb.getShort(scan+best_len-1);
       }
 
-    } while ((cur_match = (prev[cur_match & wmask]&0xffff)) > limit
+    } while ((cur_match = (prev32 != null ?
+			   prev32[cur_match & wmask] - base :
+			   prev[cur_match & wmask]&0xffff)) > limit
 	     && --chain_length != 0);
 
     if (best_len <= lookahead) return best_len;
     return lookahead;
   }
 
+  // Return the number of leading bytes, at most max, that the strings at
+  // window indices scan and match have in common. Eight bytes are compared
+  // at a time; the first differing byte of a word is found from the lowest
+  // set bit of their difference. Callers pass match < scan, and
+  // scan+max <= window_size.
+  final int match_len(int scan, int match, int max){
+    ByteBuffer wb = window_buf;
+    byte[] w = window;
+    int len = 0;
+    while(len+8 <= max){
+      long diff = wb.getLong(scan+len) ^ wb.getLong(match+len);
+      if(diff != 0){
+	return len + (Long.numberOfTrailingZeros(diff)>>>3);
+      }
+      len += 8;
+    }
+    while(len < max && w[scan+len] == w[match+len]) len++;
+    return len;
+  }
+
   int deflateInit(int level, int bits, int memlevel){
     return deflateInit(level, Z_DEFLATED, bits, memlevel,
 			Z_DEFAULT_STRATEGY);
@@ -1354,8 +1952,9 @@ final class Deflate implements Cloneable {
 
     if (memLevel < 1 || memLevel > MAX_MEM_LEVEL || 
 	method != Z_DEFLATED ||
-	windowBits < 9 || windowBits > 15 || level < 0 || level > 9 ||
-        strategy < 0 || strategy > Z_HUFFMAN_ONLY) {
+	windowBits < 9 || windowBits > 15 || level < 0 ||
+	level > Z_OPTIMAL_COMPRESSION ||
+        strategy < 0 || strategy > Z_FIXED) {
       return Z_STREAM_ERROR;
     }
 
@@ -1371,19 +1970,41 @@ final class Deflate implements Cloneable {
     hash_mask = hash_size - 1;
     hash_shift = ((hash_bits+MIN_MATCH-1)/MIN_MATCH);
 
-    window = new byte[w_size*2];
-    prev = new short[w_size];
-    head = new short[hash_size];
+    if(memLevel >= DEF_MEM_LEVEL){
+      window = alloc_bytes(w_size*4+WIN_SLACK);
+      prev32 = alloc_ints(w_size);
+      head32 = alloc_ints(hash_size);
+    }
+    else{
+      window = alloc_bytes(w_size*2+WIN_SLACK);
+      prev = alloc_shorts(w_size);
+      head = alloc_shorts(hash_size);
+    }
 
     lit_bufsize = 1 << (memLevel + 6); // 16K elements by default
+    pending_buf = alloc_bytes(lit_bufsize*4);
+
+    if(window == null || pending_buf == null ||
+       (memLevel >= DEF_MEM_LEVEL ? prev32 == null || head32 == null
+                                  : prev == null || head == null)){
+      status = FINISH_STATE;
+      strm.msg = z_errmsg[Z_NEED_DICT-(Z_MEM_ERROR)];
+      deflateEnd();
+      return Z_MEM_ERROR;
+    }
+
+    window_buf = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
 
-    // We overlay pending_buf and d_buf+l_buf. This works since the average
-    // output size for (length,distance) codes is <= 24 bits.
-    pending_buf = new byte[lit_bufsize*4];
+    // We overlay pending_buf and sym_buf, which starts a quarter of the way
+    // into pending_buf: three bytes of symbols for every four bytes of
+    // output. Each symbol takes at most 31 bits once coded, so the output
+    // of a block, even with fixed codes, stays behind the symbols still to
+    // be read by more than 130 bits. (A dynamic block is only chosen when it
+    // is shorter than the fixed one.)
     pending_buf_size = lit_bufsize*4;
+    pending_buf_view = ByteBuffer.wrap(pending_buf).order(ByteOrder.LITTLE_ENDIAN);
 
-    d_buf = lit_bufsize/2;
-    l_buf = (1+2)*lit_bufsize;
+    sym_buf = lit_bufsize;
 
     this.level = level;
 
@@ -1394,6 +2015,7 @@ final class Deflate implements Cloneable {
   }
 
   int deflateReset(){
+    if(snapshot != null) snapshot.drop(this);
     strm.total_in = strm.total_out = 0;
     strm.msg = null; //
     strm.data_type = Z_UNKNOWN;
@@ -1418,10 +2040,20 @@ final class Deflate implements Cloneable {
     if(status!=INIT_STATE && status!=BUSY_STATE && status!=FINISH_STATE){
       return Z_STREAM_ERROR;
     }
+    if(snapshot != null) snapshot.drop(this);
     // Deallocate in reverse order of allocations:
+    free(pending_buf);
     pending_buf=null;
+    pending_buf_view=null;
+    free(head);
     head=null;
+    free(prev);
     prev=null;
+    free(head32);
+    head32=null;
+    free(prev32);
+    prev32=null;
+    free(window);
     window=null;
     // free
     // dstate=null;
@@ -1434,36 +2066,138 @@ final class Deflate implements Cloneable {
     if(_level == Z_DEFAULT_COMPRESSION){
       _level = 6;
     }
-    if(_level < 0 || _level > 9 || 
-       _strategy < 0 || _strategy > Z_HUFFMAN_ONLY) {
+    if(_level < 0 || _level > Z_OPTIMAL_COMPRESSION || 
+       _strategy < 0 || _strategy > Z_FIXED) {
       return Z_STREAM_ERROR;
     }
 
-    if(config_table[level].func!=config_table[_level].func &&
+    if(block_func(level, strategy)!=block_func(_level, _strategy) &&
        strm.total_in != 0) {
-      // Flush the last buffer:
-      err = strm.deflate(Z_PARTIAL_FLUSH);
+      // Finish the current block:
+      err = strm.deflate(Z_BLOCK);
+      if(err == Z_STREAM_ERROR) return err;
+      // The compression functions keep different state between calls
+      // (deflate_rle, for example, does not maintain ins_h), so the switch
+      // is only safe once all input has been compressed; otherwise the
+      // caller must provide more output space and try again.
+      if(strm.avail_in != 0 || (strstart - block_start) + lookahead != 0)
+        return Z_BUF_ERROR;
+      err = Z_OK;
     }
 
     if(level != _level) {
       level = _level;
+      tuned = null;
       max_lazy_match   = config_table[level].max_lazy;
       good_match       = config_table[level].good_length;
       nice_match       = config_table[level].nice_length;
       max_chain_length = config_table[level].max_chain;
     }
     strategy = _strategy;
+    // fixed trees gain nothing from a new block
+    split_blocks = block_func(level, strategy) != OPTIMAL &&
+                   strategy != Z_FIXED;
     return err;
   }
 
+  // Insert the low bits bits of value into the output, ahead of the
+  // compressed data that follows.
+  int deflatePrime(int bits, int value){
+    if(bits < 0 || bits > 16)
+      return Z_STREAM_ERROR;
+    if(sym_buf < pending + ((Buf_size + 7) >> 3))
+      return Z_BUF_ERROR;
+    do {
+      int put = Buf_size - bi_valid;
+      if(put > bits)
+        put = bits;
+      bi_buf |= (long)(value & ((1 << put) - 1)) << bi_valid;
+      bi_valid += put;
+      bi_flush();
+      value >>= put;
+      bits -= put;
+    }
+    while(bits != 0);
+    return Z_OK;
+  }
+
+  // Fine tune the match search of the current level. Unlike zlib, the
+  // values are kept when the stream is reset, so a Deflater may be set up
+  // once with its own profile and then reused; changing the level with
+  // deflateParams restores that level's defaults.
+  int deflateTune(int good_length, int max_lazy,
+                  int nice_length, int max_chain){
+    if(good_length < 0 || max_lazy < 0 || nice_length < 0 || max_chain < 1)
+      return Z_STREAM_ERROR;
+    tuned = new Config(good_length, max_lazy, nice_length, max_chain,
+                       config_table[level].func);
+    good_match       = good_length;
+    max_lazy_match   = max_lazy;
+    nice_match       = nice_length;
+    max_chain_length = max_chain;
+    return Z_OK;
+  }
+
+  // Return an upper bound on the compressed size of sourceLen bytes,
+  // deflated with the current parameters in a single Z_FINISH call.
+  long deflateBound(long sourceLen){
+    // upper bound for blocks coded with the static trees, which never
+    // fall back to stored blocks in deflate_quick: 9 bits per literal,
+    // plus the block headers
+    long fixedlen = sourceLen + (sourceLen >> 3) + (sourceLen >> 8) +
+      (sourceLen >> 9) + 4;
+    // upper bound for stored blocks of at least 128 bytes (memLevel 1)
+    long storelen = sourceLen + (sourceLen >> 5) + (sourceLen >> 7) +
+      (sourceLen >> 11) + 7;
+    long wraplen;
+
+    // wrap is negated once the trailer is written; count the whole
+    // wrapper anyway, as the stream is then reset before it is used again.
+    switch(wrap < 0 ? -wrap : wrap){
+    case 0:  // raw deflate
+      wraplen = 0;
+      break;
+    case 1:  // zlib header and adler32 trailer, plus a preset dictionary id
+      wraplen = 6 + (strstart != 0 ? 4 : 0);
+      break;
+    default: // gzip header and trailer
+      wraplen = 8 + (gheader == null ? 10 : gheader.getBytes(level).length);
+    }
+
+    // deflate_optimal may end a block after a few hundred bytes; even
+    // stored, such blocks stay within fixedlen.
+    int func = block_func(level, strategy);
+    if(func == QUICK || func == OPTIMAL)
+      return fixedlen + wraplen;
+
+    // The tight bound only holds for the default window and memLevel,
+    // where a block that does not compress becomes a stored block of
+    // at least 16K bytes.
+    if(w_bits != MAX_WBITS || hash_bits != DEF_MEM_LEVEL + 7)
+      return (level != 0 ? fixedlen : storelen) + wraplen;
+
+    // Block splitting may end a block every SPLIT_MIN_LENGTH bytes, and
+    // each of those may be stored with 5 more bytes of header.
+    long splitlen = split_blocks ?
+      5 * ((sourceLen + SPLIT_MIN_LENGTH - 1) / SPLIT_MIN_LENGTH) : 0;
+
+    return sourceLen + (sourceLen >> 12) + (sourceLen >> 14) +
+      (sourceLen >> 25) + 13 - 6 + splitlen + wraplen;
+  }
+
   int deflateSetDictionary (byte[] dictionary, int dictLength){
     int length = dictLength;
     int index=0;
 
-    if(dictionary == null || status != INIT_STATE)
+    // A raw deflate stream (wrap == 0) starts in BUSY_STATE, so it may
+    // only be primed before any input has been consumed.
+    if(dictionary == null ||
+       (wrap != 0 && status != INIT_STATE) ||
+       (wrap == 0 && (strm.total_in != 0 || lookahead != 0)))
       return Z_STREAM_ERROR;
 
-    strm.adler.update(dictionary, 0, dictLength);
+    if(wrap != 0)
+      strm.adler.update(dictionary, 0, dictLength);
 
     if(length < MIN_MATCH) return Z_OK;
     if(length > w_size-MIN_LOOKAHEAD){
@@ -1483,8 +2217,49 @@ final class Deflate implements Cloneable {
 
     for(int n=0; n<=length-MIN_MATCH; n++){
       ins_h=(((ins_h)<<hash_shift)^(window[(n)+(MIN_MATCH-1)]&0xff))&hash_mask;
-      prev[n&w_mask]=head[ins_h];
-      head[ins_h]=(short)n;
+      insert_string(ins_h, n);
+    }
+    return Z_OK;
+  }
+
+  // As above, but copy the window and hash chains which dict has built,
+  // instead of inserting every string again. A dictionary prepared for
+  // other windowBits or memLevel values is inserted as usual.
+  int deflateSetDictionary(PreparedDictionary dict){
+    if(dict.w_bits != w_bits || dict.hash_bits != hash_bits)
+      return deflateSetDictionary(dict.dictionary, dict.dictionary.length);
+    if(snapshot != null) snapshot.drop(this); // not journaled
+
+    if((wrap != 0 && status != INIT_STATE) ||
+       (wrap == 0 && (strm.total_in != 0 || lookahead != 0)))
+      return Z_STREAM_ERROR;
+
+    // The checksum has just been reset, at deflateInit or deflateReset.
+    if(wrap == 1)
+      strm.adler.reset(dict.adler);
+    else if(wrap != 0)
+      strm.adler.update(dict.dictionary, 0, dict.dictionary.length);
+
+    int length = dict.length;
+    if(length < MIN_MATCH) return Z_OK;
+    System.arraycopy(dict.dictionary, dict.dictionary.length-length,
+                     window, 0, length);
+    strstart = length;
+    block_start = length;
+
+    // The hash table has been cleared by lm_init, and no string has been
+    // inserted since, so that pos_base is still 0.
+    int[] slots = dict.slots;
+    int[] heads = dict.heads;
+    if(head32 != null){
+      for(int i = 0; i < slots.length; i++)
+        head32[slots[i]] = heads[i];
+      System.arraycopy(dict.prev32, 0, prev32, 0, length);
+    }
+    else{
+      for(int i = 0; i < slots.length; i++)
+        head[slots[i]] = (short)heads[i];
+      System.arraycopy(dict.prev, 0, prev, 0, length);
     }
     return Z_OK;
   }
@@ -1492,7 +2267,7 @@ final class Deflate implements Cloneable {
   int deflate(int flush){
     int old_flush;
 
-    if(flush>Z_FINISH || flush<0){
+    if(flush>Z_BLOCK || flush<0){
       return Z_STREAM_ERROR;
     }
 
@@ -1557,7 +2332,7 @@ final class Deflate implements Cloneable {
       // flushes. For repeated and useless calls with Z_FINISH, we keep
       // returning Z_STREAM_END instead of Z_BUFF_ERROR.
     }
-    else if(strm.avail_in==0 && flush <= old_flush &&
+    else if(strm.avail_in==0 && rank(flush) <= rank(old_flush) &&
 	    flush != Z_FINISH) {
       strm.msg=z_errmsg[Z_NEED_DICT-(Z_BUF_ERROR)];
       return Z_BUF_ERROR;
@@ -1573,7 +2348,12 @@ final class Deflate implements Cloneable {
     if(strm.avail_in!=0 || lookahead!=0 ||
        (flush != Z_NO_FLUSH && status != FINISH_STATE)) {
       int bstate=-1;
-      switch(config_table[level].func){
+      int func=block_func(level, strategy);
+      if(block_open != 0 && func != QUICK){
+	// The other functions tally symbols for a block of their own.
+	quick_end_block();
+      }
+      switch(func){
       case STORED: 
 	bstate = deflate_stored(flush);
 	break;
@@ -1583,6 +2363,18 @@ final class Deflate implements Cloneable {
       case SLOW: 
 	bstate = deflate_slow(flush);
 	break;
+      case RLE: 
+	bstate = deflate_rle(flush);
+	break;
+      case QUICK: 
+	bstate = deflate_quick(flush);
+	break;
+      case MEDIUM: 
+	bstate = deflate_medium(flush);
+	break;
+      case OPTIMAL: 
+	bstate = deflate_optimal(flush);
+	break;
       default:
       }
 
@@ -1606,14 +2398,15 @@ final class Deflate implements Cloneable {
 	if(flush == Z_PARTIAL_FLUSH) {
 	  _tr_align();
 	} 
+	else if(flush == Z_BLOCK) {
+	  bi_flush(); // leave at most 7 bits for the next block
+	}
 	else { // FULL_FLUSH or SYNC_FLUSH
 	  _tr_stored_block(0, 0, false);
 	  // For a full flush, this empty block will be recognized
 	  // as a special marker by inflate_sync().
 	  if(flush == Z_FULL_FLUSH) {
-	    //state.head[s.hash_size-1]=0;
-	    for(int i=0; i<hash_size/*-1*/; i++)  // forget history
-	      head[i]=0;
+	    clear_hash();  // forget history
 	  }
 	}
 	strm.flush_pending();
@@ -1656,11 +2449,32 @@ final class Deflate implements Cloneable {
     return pending != 0 ? Z_OK : Z_STREAM_END;
   }
 
+  // Order the flush values by strength. Z_BLOCK lies between Z_NO_FLUSH
+  // and Z_PARTIAL_FLUSH, as it only completes the current block.
+  private static int rank(int flush){
+    return flush*2 - (flush > Z_FINISH ? 9 : 0);
+  }
+
+  // The compression function to be used for the given level and strategy.
+  private static int block_func(int level, int strategy){
+    if(level != 0 && strategy == Z_RLE) return RLE;
+    int func = config_table[level].func;
+    // deflate_quick always looks for matches
+    if(func == QUICK && strategy == Z_HUFFMAN_ONLY) return FAST;
+    // deflate_optimal parses for the dynamic trees, with any match
+    if(func == OPTIMAL && strategy != Z_DEFAULT_STRATEGY) return SLOW;
+    return func;
+  }
+
   static int deflateCopy(ZStream dest, ZStream src){
 
-    if(src.dstate == null){
+    if(src.dstate == null || dest == src){
       return Z_STREAM_ERROR;
     }
+    if(dest.dstate != null){
+      dest.dstate.deflateEnd(); // give back its buffers
+      dest.dstate = null;
+    }
 
     if(src.next_in!=null){
       dest.next_in = new byte[src.next_in.length];
@@ -1688,36 +2502,326 @@ final class Deflate implements Cloneable {
       dest.dstate.strm = dest;
     }
     catch(CloneNotSupportedException e){
-      //
+      return Z_MEM_ERROR;
     }
     return Z_OK;
   }
 
+  // Write the state of the stream, at a flush point, to a byte array
+  // from which deflateResume continues the same stream, possibly in
+  // another process. Return null if the stream is not at a flush point,
+  // where all the input given to deflate() has been compressed and no
+  // symbols wait for the end of their block, or if it has been finished.
+  //
+  // After a Z_FULL_FLUSH the hash chains are empty, and only the byte
+  // before strstart, which deflate_rle may repeat, is kept of the window.
+  // Otherwise the window is kept with the hash tables, or, if withTables
+  // is false, without them; deflateResume then rebuilds the chains from
+  // the window, which gives the same data but not always the same bytes
+  // as the stream would have had.
+  byte[] deflateCheckpoint(boolean withTables){
+    if(status != BUSY_STATE || lookahead != 0 || last_lit != 0 ||
+       match_available != 0 || strstart != block_start ||
+       (opt != null && opt.next < opt.nsyms)){
+      return null;
+    }
+
+    int history;
+    if(last_flush == Z_FULL_FLUSH) history = HISTORY_CLEARED;
+    else if(withTables) history = HISTORY_TABLES;
+    else history = HISTORY_WINDOW;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater();
+    deflater.init(JZlib.Z_BEST_SPEED);
+    try{
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(CHECKPOINT_MAGIC);
+      data.writeByte(CHECKPOINT_VERSION);
+      data.writeByte(level);
+      data.writeByte(strategy);
+      data.writeByte(w_bits);
+      data.writeByte(hash_bits-7);
+      data.writeByte(wrap);
+      data.flush();
+
+      // The rest, mostly the window and the tables, is deflated, from a
+      // buffer, not a few bytes at a time.
+      DeflaterOutputStream dos =
+        new DeflaterOutputStream(out, deflater, 4096, false);
+      data = new DataOutputStream(new BufferedOutputStream(dos, 8192));
+
+      data.writeBoolean(tuned != null);
+      if(tuned != null){
+	data.writeInt(tuned.good_length);
+	data.writeInt(tuned.max_lazy);
+	data.writeInt(tuned.nice_length);
+	data.writeInt(tuned.max_chain);
+      }
+      data.writeByte(last_flush);
+      data.writeByte(data_type);
+      data.writeByte(strm.data_type);
+      data.writeLong(strm.adler.getValue());
+      data.writeLong(strm.total_in);
+      data.writeLong(strm.total_out);
+
+      data.writeInt(strstart);
+      data.writeInt(pos_base);
+      data.writeInt(ins_h);
+      data.writeInt(match_length);
+      data.writeInt(prev_length);
+      data.writeInt(match_start);
+      data.writeInt(prev_match);
+      data.writeByte(last_eob_len);
+      data.writeLong(bi_buf);
+      data.writeByte(bi_valid);
+      data.writeByte(block_open);
+
+      data.writeInt(pending);
+      data.write(pending_buf, pending_out, pending);
+
+      int n = history == HISTORY_CLEARED ? 1 : w_size;
+      if(n > strstart) n = strstart;
+      data.writeByte(history);
+      data.writeInt(n);
+      data.write(window, strstart-n, n);
+
+      if(history == HISTORY_TABLES){
+	if(head32 != null){
+	  write_ints(data, head32, hash_size);
+	  write_ints(data, prev32, w_size);
+	}
+	else{
+	  write_shorts(data, head, hash_size);
+	  write_shorts(data, prev, w_size);
+	}
+      }
+      data.close();
+    }
+    catch(IOException e){
+      // not thrown by a ByteArrayOutputStream
+      return null;
+    }
+    finally{
+      deflater.end();
+    }
+    return out.toByteArray();
+  }
+
+  // Set up this Deflate, which has not been initialized, to continue the
+  // stream saved by deflateCheckpoint. Return Z_DATA_ERROR if checkpoint
+  // is not such a byte array, or has been damaged, and Z_VERSION_ERROR
+  // if it was written by an incompatible version.
+  int deflateResume(byte[] checkpoint){
+    DataInputStream data =
+      new DataInputStream(new ByteArrayInputStream(checkpoint));
+    Inflater inflater = new Inflater();
+    int ret;
+    try{
+      if(data.readInt() != CHECKPOINT_MAGIC){
+	strm.msg = "not a deflate checkpoint";
+	return Z_DATA_ERROR;
+      }
+      if(data.readByte() != CHECKPOINT_VERSION){
+	strm.msg = "unknown checkpoint version";
+	return Z_VERSION_ERROR;
+      }
+      int _level = data.readByte();
+      int _strategy = data.readByte();
+      int _w_bits = data.readByte();
+      int _mem_level = data.readByte();
+      int _wrap = data.readByte();
+      if(_wrap < 0 || _wrap > 2){
+	strm.msg = "invalid checkpoint";
+	return Z_DATA_ERROR;
+      }
+      if(_wrap == 1 && !(strm.adler instanceof Adler32))
+	strm.adler = new Adler32();
+      ret = deflateInit(_level, Z_DEFLATED,
+			_wrap == 0 ? -_w_bits : _wrap == 2 ? _w_bits+16 : _w_bits,
+			_mem_level, _strategy);
+      if(ret == Z_MEM_ERROR)
+	return ret;
+      if(ret != Z_OK){
+	strm.msg = "invalid checkpoint";
+	return Z_DATA_ERROR;
+      }
+
+      data = new DataInputStream(
+        new BufferedInputStream(new InflaterInputStream(data, inflater), 8192));
+
+      if(data.readBoolean()){
+	int good_length = data.readInt();
+	int max_lazy = data.readInt();
+	int nice_length = data.readInt();
+	int max_chain = data.readInt();
+	if(deflateTune(good_length, max_lazy, nice_length, max_chain) != Z_OK)
+	  throw new IOException();
+      }
+      last_flush = data.readByte();
+      data_type = data.readByte();
+      strm.data_type = data.readByte();
+      strm.adler.reset(data.readLong());
+      strm.total_in = data.readLong();
+      strm.total_out = data.readLong();
+
+      strstart = block_start = data.readInt();
+      pos_base = data.readInt();
+      ins_h = data.readInt();
+      match_length = data.readInt();
+      prev_length = data.readInt();
+      match_start = data.readInt();
+      prev_match = data.readInt();
+      last_eob_len = data.readByte();
+      bi_buf = data.readLong();
+      bi_valid = data.readByte();
+      block_open = data.readByte();
+      if(strstart < 0 || strstart > window_size ||
+	 bi_valid < 0 || bi_valid > Buf_size)
+	throw new IOException();
+
+      pending = data.readInt();
+      if(pending < 0 || pending > sym_buf)
+	throw new IOException();
+      data.readFully(pending_buf, 0, pending);
+
+      int history = data.readByte();
+      int n = data.readInt();
+      if(n < 0 || n > strstart || n > w_size)
+	throw new IOException();
+      data.readFully(window, strstart-n, n);
+
+      switch(history){
+      case HISTORY_CLEARED:
+	break;
+      case HISTORY_TABLES:
+	if(head32 != null){
+	  read_ints(data, head32, hash_size);
+	  read_ints(data, prev32, w_size);
+	}
+	else{
+	  read_shorts(data, head, hash_size);
+	  read_shorts(data, prev, w_size);
+	}
+	break;
+      case HISTORY_WINDOW:
+	for(int p=strstart-n; p+MIN_MATCH<=strstart; p++){
+	  int h=((((window[p]&0xff)<<hash_shift)^
+		  (window[p+1]&0xff))<<hash_shift)^
+	    (window[p+2]&0xff);
+	  insert_string(h&hash_mask, p);
+	}
+	break;
+      default:
+	throw new IOException();
+      }
+
+      // The deflated part must end here, with a good adler32.
+      if(data.read(new byte[1]) > 0 || !inflater.finished())
+	throw new IOException();
+    }
+    catch(IOException e){
+      status = FINISH_STATE;
+      deflateEnd();
+      strm.msg = "invalid checkpoint";
+      return Z_DATA_ERROR;
+    }
+    finally{
+      inflater.end();
+    }
+    status = BUSY_STATE;
+    return Z_OK;
+  }
+
+  // Write and read the first n values of a table in one piece, in the
+  // byte order of DataOutputStream.
+  private static void write_ints(DataOutputStream out, int[] a, int n)
+    throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(n*4);
+    buf.asIntBuffer().put(a, 0, n);
+    out.write(buf.array(), 0, n*4);
+  }
+  private static void write_shorts(DataOutputStream out, short[] a, int n)
+    throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(n*2);
+    buf.asShortBuffer().put(a, 0, n);
+    out.write(buf.array(), 0, n*2);
+  }
+  private static void read_ints(DataInputStream in, int[] a, int n)
+    throws IOException {
+    byte[] buf = new byte[n*4];
+    in.readFully(buf);
+    ByteBuffer.wrap(buf).asIntBuffer().get(a, 0, n);
+  }
+  private static void read_shorts(DataInputStream in, short[] a, int n)
+    throws IOException {
+    byte[] buf = new byte[n*2];
+    in.readFully(buf);
+    ByteBuffer.wrap(buf).asShortBuffer().get(a, 0, n);
+  }
+
   public Object clone() throws CloneNotSupportedException {
     Deflate dest = (Deflate)super.clone();
 
-    dest.pending_buf = dup(dest.pending_buf);
-    dest.window = dup(dest.window);
-
-    dest.prev = dup(dest.prev);
-    dest.head = dup(dest.head);
+    // The buffers of the copy come from the same allocator
+    dest.window = dest.alloc_bytes(window.length);
+    dest.pending_buf = dest.alloc_bytes(pending_buf.length);
+    if(head32 != null){
+      dest.prev32 = dest.alloc_ints(prev32.length);
+      dest.head32 = dest.alloc_ints(head32.length);
+    }
+    else{
+      dest.prev = dest.alloc_shorts(prev.length);
+      dest.head = dest.alloc_shorts(head.length);
+    }
+    if(dest.window == null || dest.pending_buf == null ||
+       (head32 != null ? dest.prev32 == null || dest.head32 == null
+                       : dest.prev == null || dest.head == null)){
+      dest.deflateEnd();
+      throw new CloneNotSupportedException();
+    }
+    System.arraycopy(window, 0, dest.window, 0, window.length);
+    System.arraycopy(pending_buf, 0, dest.pending_buf, 0, pending_buf.length);
+    if(head32 != null){
+      System.arraycopy(prev32, 0, dest.prev32, 0, prev32.length);
+      System.arraycopy(head32, 0, dest.head32, 0, head32.length);
+    }
+    else{
+      System.arraycopy(prev, 0, dest.prev, 0, prev.length);
+      System.arraycopy(head, 0, dest.head, 0, head.length);
+    }
+    dest.pending_buf_view = ByteBuffer.wrap(dest.pending_buf).order(ByteOrder.LITTLE_ENDIAN);
+    dest.window_buf = ByteBuffer.wrap(dest.window).order(ByteOrder.LITTLE_ENDIAN);
     dest.dyn_ltree = dup(dest.dyn_ltree);
     dest.dyn_dtree = dup(dest.dyn_dtree);
     dest.bl_tree = dup(dest.bl_tree);
+    dest.lit_enc = dup(dest.lit_enc);
+    dest.len_enc = dup(dest.len_enc);
+    dest.dist_enc = dup(dest.dist_enc);
+    dest.split_obs = dup(dest.split_obs);
+    dest.split_new_obs = dup(dest.split_new_obs);
+    if(dest.opt != null){
+      dest.opt = dest.opt.copy();
+    }
 
     dest.bl_count = dup(dest.bl_count);
     dest.heap = dup(dest.heap);
     dest.depth = dup(dest.depth);
 
+    // The copy needs tree descriptors of its own, or this stream would
+    // go on building its trees from the frequencies of the copy.
+    dest.l_desc = new Tree();
+    dest.d_desc = new Tree();
+    dest.bl_desc = new Tree();
     dest.l_desc.dyn_tree = dest.dyn_ltree;
     dest.d_desc.dyn_tree = dest.dyn_dtree;
     dest.bl_desc.dyn_tree = dest.bl_tree;
-
-    /*
     dest.l_desc.stat_desc = StaticTree.static_l_desc;
     dest.d_desc.stat_desc = StaticTree.static_d_desc;
     dest.bl_desc.stat_desc = StaticTree.static_bl_desc;
-    */
+
+    dest.snapshot = null;
+    dest.journal = null;
 
     if(dest.gheader!=null){
       dest.gheader = (GZIPHeader)dest.gheader.clone();
@@ -1726,6 +2830,56 @@ final class Deflate implements Cloneable {
     return dest;
   }
 
+  // The window, hash chains and pending_buf are taken from the allocator
+  // of the stream, if it has one. A buffer of the wrong size is given back
+  // and counts as a failed allocation.
+  byte[] alloc_bytes(int size){
+    if(allocator == null) return new byte[size];
+    byte[] buf = allocator.allocBytes(size);
+    if(buf != null && buf.length != size){
+      allocator.free(buf);
+      buf = null;
+    }
+    return buf;
+  }
+  short[] alloc_shorts(int size){
+    if(allocator == null) return new short[size];
+    short[] buf = allocator.allocShorts(size);
+    if(buf != null && buf.length != size){
+      allocator.free(buf);
+      buf = null;
+    }
+    return buf;
+  }
+  int[] alloc_ints(int size){
+    if(allocator == null) return new int[size];
+    int[] buf = allocator.allocInts(size);
+    if(buf != null && buf.length != size){
+      allocator.free(buf);
+      buf = null;
+    }
+    return buf;
+  }
+  private void free(byte[] buf){
+    if(allocator != null && buf != null) allocator.free(buf);
+  }
+  private void free(short[] buf){
+    if(allocator != null && buf != null) allocator.free(buf);
+  }
+  private void free(int[] buf){
+    if(allocator != null && buf != null) allocator.free(buf);
+  }
+
+  // A shallow copy, which shares all the arrays, for DeflaterSnapshot.
+  Deflate copy_fields(){
+    try{
+      return (Deflate)super.clone();
+    }
+    catch(CloneNotSupportedException e){
+      throw new InternalError();
+    }
+  }
+
   private byte[] dup(byte[] buf){
     byte[] foo = new byte[buf.length];
     System.arraycopy(buf, 0, foo, 0, foo.length);
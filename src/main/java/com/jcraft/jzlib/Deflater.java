@@ -89,6 +89,22 @@ final public class Deflater extends ZStream{
       throw new GZIPException(ret+": "+msg);
   }
 
+  // The window, hash and pending buffers are taken from allocator, and
+  // given back to it by end(), or when init() is called again.
+  public Deflater(Allocator allocator){
+    super();
+    this.allocator = allocator;
+  }
+
+  public Deflater(int level, int bits, int memlevel, Allocator allocator)
+    throws GZIPException {
+    super();
+    this.allocator = allocator;
+    int ret = init(level, bits, memlevel);
+    if(ret!=Z_OK)
+      throw new GZIPException(ret+": "+msg);
+  }
+
   public int init(int level){
     return init(level, MAX_WBITS);
   }
@@ -100,11 +116,13 @@ final public class Deflater extends ZStream{
   }
   public int init(int level, int bits, int memlevel){
     finished = false;
+    if(dstate != null) dstate.deflateEnd();
     dstate=new Deflate(this);
     return dstate.deflateInit(level, bits, memlevel);
   }
   public int init(int level, int bits, boolean nowrap){
     finished = false;
+    if(dstate != null) dstate.deflateEnd();
     dstate=new Deflate(this);
     return dstate.deflateInit(level, nowrap?-bits:bits);
   }
@@ -126,6 +144,16 @@ final public class Deflater extends ZStream{
     free();
     return ret;
   }
+  // Start a new stream with the same parameters, keeping the window, hash
+  // and pending buffers, which init() would allocate again. The level and
+  // strategy set by params() and the values set by deflateTune() are kept;
+  // a preset dictionary is not.
+  public int reset(){
+    finished = false;
+    if(dstate == null)
+      return Z_STREAM_ERROR;
+    return dstate.deflateReset();
+  }
   public int params(int level, int strategy){
     if(dstate==null) return Z_STREAM_ERROR;
     return dstate.deflateParams(level, strategy);
@@ -135,11 +163,134 @@ final public class Deflater extends ZStream{
       return Z_STREAM_ERROR;
     return dstate.deflateSetDictionary(dictionary, dictLength);
   }
+  // Set a dictionary which has been hashed beforehand, for the same
+  // windowBits and memLevel as this stream.
+  public int setDictionary(PreparedDictionary dictionary){
+    if(dstate == null || dictionary == null)
+      return Z_STREAM_ERROR;
+    return dstate.deflateSetDictionary(dictionary);
+  }
+
+  // Insert the low bits bits (at most 16) of value into the output.
+  // Used with Z_BLOCK to splice deflate data at a bit position.
+  public int deflatePrime(int bits, int value){
+    if(dstate == null)
+      return Z_STREAM_ERROR;
+    return dstate.deflatePrime(bits, value);
+  }
+
+  // Return the number of bytes of output that have been generated but
+  // not yet copied to next_out.
+  public int deflatePending(){
+    if(dstate == null)
+      return Z_STREAM_ERROR;
+    return dstate.pending;
+  }
+
+  // Return the number of bits of output that are still held in the bit
+  // buffer. There are at most 7 after a Z_BLOCK flush, and none after
+  // other flushes, which align the output.
+  public int deflatePendingBits(){
+    if(dstate == null)
+      return Z_STREAM_ERROR;
+    return dstate.bi_valid;
+  }
+
+  // Set the match search parameters of the current level: the lengths
+  // above which the search is shortened (good_length), lazy matching is
+  // skipped (max_lazy) and the search stops (nice_length), and the
+  // longest hash chain followed (max_chain). They are kept across
+  // compress() calls until the level is changed with params().
+  public int deflateTune(int good_length, int max_lazy,
+                         int nice_length, int max_chain){
+    if(dstate == null)
+      return Z_STREAM_ERROR;
+    return dstate.deflateTune(good_length, max_lazy, nice_length, max_chain);
+  }
+
+  // Return an upper bound on the compressed size of sourceLen bytes,
+  // deflated with the current parameters in a single Z_FINISH call.
+  // An output buffer of this size lets compress() complete.
+  public long deflateBound(long sourceLen){
+    if(dstate == null){
+      // the parameters are not known: allow for blocks coded with the
+      // static trees and a zlib wrapper
+      return sourceLen + (sourceLen >> 3) + (sourceLen >> 8) +
+        (sourceLen >> 9) + 4 + 6;
+    }
+    return dstate.deflateBound(sourceLen);
+  }
+
+  // Compress len bytes of src, starting at off, into dst at dstOff with
+  // a single Z_FINISH call, and return the number of bytes written.
+  // The stream is reset first, so the same Deflater may compress one
+  // buffer after another; a preset dictionary is not kept across calls.
+  // Z_BUF_ERROR is returned if the output does not fit in dst, which
+  // cannot happen if dst has deflateBound(len) bytes free after dstOff.
+  public int compress(byte[] src, int off, int len, byte[] dst, int dstOff){
+    int ret = reset();
+    if(ret != Z_OK)
+      return ret;
+
+    setInput(src, off, len, false);
+    setOutput(dst, dstOff, dst.length-dstOff);
+    ret = deflate(Z_FINISH);
+    if(ret == Z_STREAM_END)
+      return (int)total_out;
+    return ret == Z_OK ? Z_BUF_ERROR : ret;
+  }
 
   public boolean finished(){
     return finished;
   }
 
+  // Take a snapshot of the stream, which restore() rolls it back to.
+  // It replaces the previous snapshot, if any.
+  public DeflaterSnapshot snapshot(){
+    if(dstate == null)
+      return null;
+    return new DeflaterSnapshot(dstate, finished);
+  }
+
+  // Roll the stream back to the latest snapshot, which may be restored
+  // again later. The totals and the checksum are rolled back too; the
+  // input and output buffers are left as they are.
+  public int restore(DeflaterSnapshot snapshot){
+    if(dstate == null || snapshot == null || dstate.snapshot != snapshot)
+      return Z_STREAM_ERROR;
+    dstate = snapshot.restore(dstate);
+    finished = snapshot.finished;
+    return Z_OK;
+  }
+
+  // Save the stream, once it has been flushed, as a byte array from which
+  // resume() continues it, in this or another Deflater, possibly in
+  // another process. null is returned if there is no stream, or if it
+  // has not just been flushed. The window is saved with the hash tables,
+  // or without them, if withTables is false, to be hashed again by
+  // resume(); the output is then still valid, but may differ from that
+  // of the original stream. Right after a Z_FULL_FLUSH, neither the
+  // window nor the tables are needed, and the checkpoint is a few hundred
+  // bytes.
+  public byte[] checkpoint(boolean withTables){
+    if(dstate == null || finished)
+      return null;
+    return dstate.deflateCheckpoint(withTables);
+  }
+
+  // Replace the stream by the one saved in checkpoint, which continues
+  // from its totals and checksum. The input and output buffers are left
+  // as they are. Z_DATA_ERROR is returned if checkpoint is damaged.
+  public int resume(byte[] checkpoint){
+    finished = false;
+    if(dstate != null) dstate.deflateEnd();
+    dstate = new Deflate(this);
+    int ret = dstate.deflateResume(checkpoint);
+    if(ret != Z_OK)
+      dstate = null;
+    return ret;
+  }
+
   public int copy(Deflater src){
     this.finished = src.finished;
     return Deflate.deflateCopy(this, src);
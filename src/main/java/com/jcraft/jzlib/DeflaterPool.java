@@ -0,0 +1,146 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded pool of Deflater instances, for servers which compress many
+ * short streams.  A Deflater taken from the pool and released again keeps
+ * its window, hash and pending buffers, so that the next stream with the
+ * same parameters does not allocate them.
+ *
+ * Deflaters are pooled by level, windowBits and memLevel, where windowBits
+ * also selects the wrapper as in Deflater#init: 9..15 for zlib, -9..-15
+ * for raw deflate, and 25..31 for gzip.  At most <code>capacity</code>
+ * idle instances are kept for each combination; further ones are ended.
+ *
+ * The pool may be shared by several threads.  Each Deflater is used by
+ * one thread at a time, between acquire and release.
+ */
+public class DeflaterPool {
+
+  static final private int MAX_WBITS=15;
+  static final private int DEF_MEM_LEVEL=8;
+
+  private final int capacity;
+
+  private final ConcurrentHashMap<Integer, Idle> idle =
+    new ConcurrentHashMap<Integer, Idle>();
+
+  public DeflaterPool(int capacity) {
+    if(capacity < 0)
+      throw new IllegalArgumentException("capacity: "+capacity);
+    this.capacity = capacity;
+  }
+
+  public Deflater acquire(int level) throws GZIPException {
+    return acquire(level, MAX_WBITS, DEF_MEM_LEVEL);
+  }
+
+  public Deflater acquire(int level, int bits) throws GZIPException {
+    return acquire(level, bits, DEF_MEM_LEVEL);
+  }
+
+  /**
+   * Return a Deflater ready to start a stream with the given parameters,
+   * an idle one if the pool has it.
+   */
+  public Deflater acquire(int level, int bits, int memLevel)
+    throws GZIPException {
+    if(level == JZlib.Z_DEFAULT_COMPRESSION)
+      level = 6;
+    Idle i = idle.get(key(level, bits, memLevel));
+    if(i != null){
+      Deflater deflater = i.poll();
+      if(deflater != null)
+        return deflater;
+    }
+    return new Deflater(level, bits, memLevel);
+  }
+
+  /**
+   * Give back a Deflater, which must not be used afterwards.  It is reset
+   * to its default strategy and kept for the level it has now, unless the
+   * pool is full, or it was ended or tuned with deflateTune, in which case
+   * it is dropped.  Its input and output buffers are not kept.
+   */
+  public void release(Deflater deflater) {
+    Deflate s = deflater.dstate;
+    if(s == null || s.tuned != null ||
+       deflater.reset() != JZlib.Z_OK ||
+       deflater.params(s.level, JZlib.Z_DEFAULT_STRATEGY) != JZlib.Z_OK){
+      deflater.end();
+      return;
+    }
+    s.gheader = null;
+    deflater.free();
+
+    int bits = s.wrap == 0 ? -s.w_bits : s.wrap == 2 ? s.w_bits+16 : s.w_bits;
+    Integer key = key(s.level, bits, s.hash_bits-7);
+    Idle i = idle.get(key);
+    if(i == null){
+      Idle foo = idle.putIfAbsent(key, i = new Idle(capacity));
+      if(foo != null)
+        i = foo;
+    }
+    if(!i.offer(deflater))
+      deflater.end();
+  }
+
+  private static Integer key(int level, int bits, int memLevel) {
+    return Integer.valueOf(((level&0xff)<<16) | ((bits&0xff)<<8) |
+                           (memLevel&0xff));
+  }
+
+  // The idle instances of one key, used last in, first out.
+  private static final class Idle {
+    private final Deflater[] items;
+    private int count = 0;
+
+    Idle(int capacity) {
+      items = new Deflater[capacity];
+    }
+
+    synchronized Deflater poll() {
+      if(count == 0)
+        return null;
+      Deflater deflater = items[--count];
+      items[count] = null;
+      return deflater;
+    }
+
+    synchronized boolean offer(Deflater deflater) {
+      if(count == items.length)
+        return false;
+      items[count++] = deflater;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+/**
+ * The state of a Deflater at one point of its stream, to which
+ * Deflater#restore rolls it back, for instance to take back a record
+ * which turns out not to fit into a frame.
+ *
+ * A snapshot copies only the small per-block state.  The window and the
+ * hash tables are shared with the Deflater: the changes to the hash chains
+ * are journaled and undone by restore, a Z_FULL_FLUSH hands the table it
+ * clears over to the snapshot, and only when the window slides, or the
+ * journal outgrows the tables, are they copied, once.
+ *
+ * A Deflater keeps a single snapshot, which may be restored any number of
+ * times; taking another one, and reset(), init() or end(), make it
+ * useless.  The input consumed and the output produced after the snapshot
+ * are for the caller to supply again or to discard.
+ */
+public final class DeflaterSnapshot {
+
+  static final private int MAX_MATCH=258;
+  static final private int TAIL=2*MAX_MATCH;
+
+  private final Deflate state;  // a shallow copy of the fields
+  private final Checksum adler;
+  private final long total_in;
+  private final long total_out;
+  private final int data_type;
+  final boolean finished;
+
+  private final short[] dyn_ltree;
+  private final short[] dyn_dtree;
+  private final short[] bl_tree;
+  private final int[] split_obs;
+  private final int[] split_new_obs;
+  private final Optimal opt;
+
+  private final byte[] pending;  // pending output
+  private final byte[] syms;     // symbols of the current block
+  private final int filled;      // end of the input in the window
+  private final byte[] tail;     // the window after it, which matches
+                                 // near the end of the input look into
+
+  private int[] journal = new int[64]; // h, slot, old head and old prev
+  private int journal_len;           // for each string inserted since
+
+  private byte[] window;   // copies made when the window slides
+  private short[] head;
+  private short[] prev;
+  private int[] head32;
+  private int[] prev32;
+
+  private short[] cleared;   // head or head32 as it was, after
+  private int[] cleared32;   // Z_FULL_FLUSH has cleared the table
+  private short[] spare;     // the table cleared by the last restore
+  private int[] spare32;
+
+  DeflaterSnapshot(Deflate s, boolean finished){
+    if(s.snapshot != null){
+      // keep the spare table of the previous snapshot, if it has one
+      DeflaterSnapshot old = s.snapshot;
+      old.drop(s);
+      spare = old.spare;
+      spare32 = old.spare32;
+    }
+
+    state = s.copy_fields();
+    state.opt = null;
+    adler = s.strm.adler.copy();
+    total_in = s.strm.total_in;
+    total_out = s.strm.total_out;
+    data_type = s.strm.data_type;
+    this.finished = finished;
+
+    dyn_ltree = s.dyn_ltree.clone();
+    dyn_dtree = s.dyn_dtree.clone();
+    bl_tree = s.bl_tree.clone();
+    split_obs = s.split_obs.clone();
+    split_new_obs = s.split_new_obs.clone();
+    opt = s.opt != null ? s.opt.copy() : null;
+
+    pending = new byte[s.pending];
+    System.arraycopy(s.pending_buf, s.pending_out, pending, 0, s.pending);
+    syms = new byte[s.last_lit*3];
+    System.arraycopy(s.pending_buf, s.sym_buf, syms, 0, syms.length);
+    filled = s.strstart+s.lookahead;
+    tail = new byte[Math.min(TAIL, s.window.length-filled)];
+    System.arraycopy(s.window, filled, tail, 0, tail.length);
+
+    s.snapshot = this;
+    s.journal = this;
+  }
+
+  // Called by insert_string before it changes head[h] and prev[pos].
+  void journal(Deflate s, int h, int pos){
+    int slot = pos&s.w_mask;
+    if(journal_len == journal.length){
+      if(journal_len >= s.hash_size+s.w_size){
+        save_tables(s);
+        return;
+      }
+      int[] foo = new int[journal_len*2];
+      System.arraycopy(journal, 0, foo, 0, journal_len);
+      journal = foo;
+    }
+    int[] j = journal;
+    int n = journal_len;
+    j[n] = h;
+    j[n+1] = slot;
+    if(s.head32 != null){
+      j[n+2] = s.head32[h];
+      j[n+3] = s.prev32[slot];
+    }
+    else{
+      j[n+2] = s.head[h];
+      j[n+3] = s.prev[slot];
+    }
+    journal_len = n+4;
+  }
+
+  // Called by fill_window before it slides the window.
+  void slide(Deflate s){
+    if(window == null)
+      window = s.window.clone();
+    // Sliding rewrites the 16 bit tables, and the 32 bit tables when
+    // their positions are rebased.
+    if(s.journal != null &&
+       (s.head32 == null ||
+        s.pos_base > Integer.MAX_VALUE-s.window_size-s.window_size+s.w_size))
+      save_tables(s);
+  }
+
+  // Called by clear_hash. The table, with the changes since the snapshot
+  // undone, becomes the snapshot's, and the stream goes on with a spare.
+  void clear(Deflate s){
+    int[] j = journal;
+    if(s.head32 != null){
+      if(cleared32 == null){
+        cleared32 = s.head32;
+        for(int n = journal_len-4; n >= 0; n -= 4)
+          cleared32[j[n]] = j[n+2];
+        s.head32 = spare32 != null ? spare32 : new int[s.hash_size];
+        spare32 = null;
+      }
+      java.util.Arrays.fill(s.head32, 0);
+    }
+    else{
+      if(cleared == null){
+        cleared = s.head;
+        for(int n = journal_len-4; n >= 0; n -= 4)
+          cleared[j[n]] = (short)j[n+2];
+        s.head = spare != null ? spare : new short[s.hash_size];
+        spare = null;
+      }
+      java.util.Arrays.fill(s.head, (short)0);
+    }
+  }
+
+  // Called when this snapshot is given up. The stream takes back its own
+  // head table, which may have been obtained from an allocator.
+  void drop(Deflate s){
+    if(cleared32 != null){
+      System.arraycopy(s.head32, 0, cleared32, 0, cleared32.length);
+      spare32 = s.head32;
+      s.head32 = cleared32;
+    }
+    if(cleared != null){
+      System.arraycopy(s.head, 0, cleared, 0, cleared.length);
+      spare = s.head;
+      s.head = cleared;
+    }
+    cleared32 = null;
+    cleared = null;
+    s.snapshot = null;
+    s.journal = null;
+  }
+
+  // Copy the tables as they were at the snapshot, and stop journaling.
+  void save_tables(Deflate s){
+    if(s.head32 != null){
+      if(cleared32 != null){
+        head32 = cleared32.clone();
+        System.arraycopy(s.head32, 0, cleared32, 0, cleared32.length);
+        s.head32 = cleared32;
+        cleared32 = null;
+        prev32 = s.prev32.clone();
+        undo(null, prev32);
+      }
+      else{
+        head32 = s.head32.clone();
+        prev32 = s.prev32.clone();
+        undo(head32, prev32);
+      }
+    }
+    else{
+      if(cleared != null){
+        head = cleared.clone();
+        System.arraycopy(s.head, 0, cleared, 0, cleared.length);
+        s.head = cleared;
+        cleared = null;
+        prev = s.prev.clone();
+        undo(null, prev);
+      }
+      else{
+        head = s.head.clone();
+        prev = s.prev.clone();
+        undo(head, prev);
+      }
+    }
+    spare32 = null;
+    spare = null;
+    journal = null;
+    journal_len = 0;
+    s.journal = null;
+  }
+
+  private void undo(int[] head, int[] prev){
+    int[] j = journal;
+    for(int n = journal_len-4; n >= 0; n -= 4){
+      if(head != null) head[j[n]] = j[n+2];
+      prev[j[n+1]] = j[n+3];
+    }
+  }
+
+  private void undo(short[] head, short[] prev){
+    int[] j = journal;
+    for(int n = journal_len-4; n >= 0; n -= 4){
+      if(head != null) head[j[n]] = (short)j[n+2];
+      prev[j[n+1]] = (short)j[n+3];
+    }
+  }
+
+  // Put the arrays of s back as they were, and return the stream state
+  // which goes with them.
+  Deflate restore(Deflate s){
+    if(window != null)
+      System.arraycopy(window, 0, s.window, 0, window.length);
+    System.arraycopy(tail, 0, s.window, filled, tail.length);
+
+    if(journal == null){
+      if(head32 != null){
+        System.arraycopy(head32, 0, s.head32, 0, head32.length);
+        System.arraycopy(prev32, 0, s.prev32, 0, prev32.length);
+      }
+      else{
+        System.arraycopy(head, 0, s.head, 0, head.length);
+        System.arraycopy(prev, 0, s.prev, 0, prev.length);
+      }
+    }
+    else if(s.head32 != null){
+      undo(s.head32, s.prev32);
+      journal_len = 0;
+      if(cleared32 != null){
+        // state has the table which was cleared
+        spare32 = s.head32;
+        cleared32 = null;
+      }
+    }
+    else{
+      undo(s.head, s.prev);
+      journal_len = 0;
+      if(cleared != null){
+        spare = s.head;
+        cleared = null;
+      }
+    }
+
+    System.arraycopy(dyn_ltree, 0, s.dyn_ltree, 0, dyn_ltree.length);
+    System.arraycopy(dyn_dtree, 0, s.dyn_dtree, 0, dyn_dtree.length);
+    System.arraycopy(bl_tree, 0, s.bl_tree, 0, bl_tree.length);
+    System.arraycopy(split_obs, 0, s.split_obs, 0, split_obs.length);
+    System.arraycopy(split_new_obs, 0, s.split_new_obs, 0,
+                     split_new_obs.length);
+    System.arraycopy(pending, 0, s.pending_buf, state.pending_out,
+                     pending.length);
+    System.arraycopy(syms, 0, s.pending_buf, state.sym_buf, syms.length);
+
+    Deflate d = state.copy_fields();
+    d.opt = opt != null ? opt.copy() : null;
+    d.snapshot = this;
+    d.journal = journal != null ? this : null;
+
+    ZStream strm = d.strm;
+    strm.adler = adler.copy();
+    strm.total_in = total_in;
+    strm.total_out = total_out;
+    strm.data_type = data_type;
+    strm.msg = null;
+    strm.dstate = d;
+    return d;
+  }
+}
@@ -0,0 +1,328 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a preset dictionary from sample payloads, for many small streams
+ * of similar content.  The samples are scanned for strings of eight bytes
+ * which occur in several of them, and the segments which cover the most
+ * frequent of these strings are selected, by the method of zstd's COVER
+ * trainer.  The first selected, most valuable segment is put at the end of
+ * the dictionary, where it is nearest to the data, and where it stays if
+ * the dictionary is cut to fit a smaller window.
+ *
+ * The result may be given to Deflater#setDictionary and
+ * Inflater#setDictionary, or to PreparedDictionary.  report() measures it
+ * by deflating samples which have been held out of the training.
+ */
+public final class DictionaryTrainer {
+
+  static final private int MAX_DICT_SIZE=32768;
+  static final private int DMER=8;      // length of the counted strings
+
+  private final int maxSize;
+  private final int segmentLength;
+
+  private final List<byte[]> samples = new ArrayList<byte[]>();
+  private int total;
+
+  public DictionaryTrainer(int maxSize) {
+    this(maxSize, 256);
+  }
+
+  /**
+   * @param maxSize        the size of the dictionary, at most 32768
+   * @param segmentLength  the length of the segments which are selected
+   */
+  public DictionaryTrainer(int maxSize, int segmentLength) {
+    if(maxSize < 1 || maxSize > MAX_DICT_SIZE)
+      throw new IllegalArgumentException("maxSize: "+maxSize);
+    if(segmentLength < DMER)
+      throw new IllegalArgumentException("segmentLength: "+segmentLength);
+    this.maxSize = maxSize;
+    this.segmentLength = segmentLength;
+  }
+
+  public void addSample(byte[] sample) {
+    addSample(sample, 0, sample.length);
+  }
+
+  public void addSample(byte[] buf, int off, int len) {
+    byte[] sample = new byte[len];
+    System.arraycopy(buf, off, sample, 0, len);
+    samples.add(sample);
+    total += len;
+  }
+
+  /**
+   * Return a dictionary of at most maxSize bytes, which is shorter if the
+   * samples do not have enough repeated content.
+   */
+  public byte[] train() {
+    byte[] data = new byte[total];
+    int[] start = new int[samples.size()+1];
+    int n = 0;
+    for(int i = 0; i < samples.size(); i++){
+      byte[] sample = samples.get(i);
+      start[i] = n;
+      System.arraycopy(sample, 0, data, n, sample.length);
+      n += sample.length;
+    }
+    start[samples.size()] = n;
+
+    // Count in how many samples each string occurs; strings found in a
+    // single sample are no use to the others.
+    LongCounts freq = new LongCounts(total);
+    LongCounts last = new LongCounts(total);
+    for(int i = 0; i < samples.size(); i++){
+      for(int p = start[i]; p+DMER <= start[i+1]; p++){
+        long key = dmer(data, p);
+        if(last.get(key) != i+1){
+          last.put(key, i+1);
+          freq.put(key, freq.get(key)+1);
+        }
+      }
+    }
+    for(int i = 0; i < freq.keys.length; i++){
+      if(freq.counts[i] < 2) freq.counts[i] = 0;
+    }
+
+    // Split the data in epochs, and take the best segment of each in turn,
+    // until the dictionary is full or no segment covers a frequent string.
+    byte[] dict = new byte[maxSize];
+    int tail = maxSize;
+    int epochs = Math.max(1, Math.min(maxSize/segmentLength, total/segmentLength));
+    int epochSize = total/epochs;
+    int idle = 0;
+    LongCounts active = new LongCounts(segmentLength);
+    for(int e = 0; tail > 0 && idle < epochs; e = (e+1)%epochs){
+      int begin = e*epochSize;
+      int end = e == epochs-1 ? total : begin+epochSize;
+      long segment = best_segment(data, begin, end, freq, active);
+      if(segment < 0){
+        idle++;
+        continue;
+      }
+      idle = 0;
+      int b = (int)(segment>>>32);
+      int len = (int)segment;
+      for(int p = b; p+DMER <= b+len; p++)
+        freq.put(dmer(data, p), 0);
+      if(len > tail){
+        b += len-tail;
+        len = tail;
+      }
+      tail -= len;
+      System.arraycopy(data, b, dict, tail, len);
+    }
+
+    byte[] result = new byte[maxSize-tail];
+    System.arraycopy(dict, tail, result, 0, result.length);
+    return result;
+  }
+
+  // Return the segment of data[begin..end) which covers the most frequent
+  // strings, counting each distinct string once, as its start in the high
+  // and its length in the low 32 bits, or -1 if there is none.
+  private long best_segment(byte[] data, int begin, int end,
+                            LongCounts freq, LongCounts active){
+    int dmers = segmentLength-DMER+1;
+    long score = 0, best = 0;
+    int best_begin = 0, best_end = 0;
+    int b = begin;
+    active.clear();
+    for(int p = begin; p+DMER <= end; p++){
+      long key = dmer(data, p);
+      int c = active.get(key);
+      if(c == 0) score += freq.get(key);
+      active.put(key, c+1);
+      if(p-b+1 > dmers){
+        key = dmer(data, b++);
+        c = active.get(key)-1;
+        active.put(key, c);
+        if(c == 0) score -= freq.get(key);
+      }
+      if(score > best){
+        best = score;
+        best_begin = b;
+        best_end = p;
+      }
+    }
+    if(best == 0)
+      return -1;
+
+    // Leave out the strings at either end which nobody else has.
+    while(freq.get(dmer(data, best_begin)) == 0) best_begin++;
+    while(freq.get(dmer(data, best_end)) == 0) best_end--;
+    return ((long)best_begin<<32) | (best_end+DMER-best_begin);
+  }
+
+  private static long dmer(byte[] data, int p){
+    long v = 0;
+    for(int i = 0; i < DMER; i++)
+      v = (v<<8) | (data[p+i]&0xff);
+    return v;
+  }
+
+  /**
+   * Return the total size of the samples deflated at the given level, each
+   * as a zlib stream of its own, with the dictionary or, if it is null,
+   * without.  A GZIPException is thrown if a sample cannot be deflated.
+   */
+  public static long compressedSize(byte[] dictionary, List<byte[]> samples,
+                                    int level) throws GZIPException {
+    PreparedDictionary prepared =
+      dictionary != null ? new PreparedDictionary(dictionary) : null;
+    Deflater deflater = new Deflater(level);
+    byte[] out = new byte[8192];
+    long size = 0;
+    try{
+      for(byte[] sample : samples){
+        deflater.reset();
+        if(prepared != null)
+          deflater.setDictionary(prepared);
+        deflater.setInput(sample);
+        // Only the size is wanted, so the output buffer is reused until
+        // the stream ends, rather than sized by deflateBound.
+        int err;
+        do{
+          deflater.setOutput(out);
+          err = deflater.deflate(JZlib.Z_FINISH);
+        }
+        while(err == JZlib.Z_OK);
+        if(err != JZlib.Z_STREAM_END)
+          throw new GZIPException("cannot deflate a sample: "+err+
+                                  (deflater.msg != null ?
+                                   ": "+deflater.msg : ""));
+        size += deflater.total_out;
+      }
+    }
+    finally{
+      deflater.end();
+    }
+    return size;
+  }
+
+  /**
+   * Return a short report of how well the dictionary compresses the given
+   * samples, which should not have been used to train it, at the default
+   * compression level.
+   */
+  public static String report(byte[] dictionary, List<byte[]> samples)
+    throws GZIPException {
+    long size = 0;
+    for(byte[] sample : samples)
+      size += sample.length;
+    long plain = compressedSize(null, samples,
+                                JZlib.Z_DEFAULT_COMPRESSION);
+    long with = compressedSize(dictionary, samples,
+                               JZlib.Z_DEFAULT_COMPRESSION);
+    StringBuilder sb = new StringBuilder();
+    sb.append("dictionary: ").append(dictionary.length).append(" bytes\n");
+    sb.append("samples: ").append(samples.size()).append(", ")
+      .append(size).append(" bytes\n");
+    sb.append("without dictionary: ").append(plain).append(" bytes (")
+      .append(percent(plain, size)).append(")\n");
+    sb.append("with dictionary: ").append(with).append(" bytes (")
+      .append(percent(with, size)).append(")\n");
+    sb.append("gain: ").append(percent(plain-with, plain)).append("\n");
+    return sb.toString();
+  }
+
+  private static String percent(long a, long b){
+    if(b == 0) return "-";
+    long p = (a*1000+b/2)/b;
+    return (p/10)+"."+Math.abs(p%10)+"%";
+  }
+
+  // An open addressing map from long keys to int counts, which are 0
+  // for keys which have not been put.
+  static final class LongCounts {
+    long[] keys;
+    int[] counts;
+    boolean[] used;
+    int size;
+
+    LongCounts(int capacity){
+      int n = 16;
+      while(n < capacity*2) n <<= 1;
+      keys = new long[n];
+      counts = new int[n];
+      used = new boolean[n];
+    }
+
+    private int slot(long key){
+      int mask = keys.length-1;
+      int i = (int)((key*0x9E3779B97F4A7C15L)>>>40) & mask;
+      while(used[i] && keys[i] != key)
+        i = (i+1) & mask;
+      return i;
+    }
+
+    int get(long key){
+      int i = slot(key);
+      return used[i] ? counts[i] : 0;
+    }
+
+    void put(long key, int count){
+      int i = slot(key);
+      if(!used[i]){
+        if(size*2 >= keys.length){
+          grow();
+          i = slot(key);
+        }
+        used[i] = true;
+        keys[i] = key;
+        size++;
+      }
+      counts[i] = count;
+    }
+
+    void clear(){
+      java.util.Arrays.fill(used, false);
+      size = 0;
+    }
+
+    private void grow(){
+      long[] k = keys;
+      int[] c = counts;
+      boolean[] u = used;
+      keys = new long[k.length*2];
+      counts = new int[k.length*2];
+      used = new boolean[k.length*2];
+      size = 0;
+      for(int i = 0; i < k.length; i++){
+        if(u[i]) put(k[i], c[i]);
+      }
+    }
+  }
+}
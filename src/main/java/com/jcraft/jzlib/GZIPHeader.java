@@ -34,6 +34,7 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 
 public class GZIPHeader implements Cloneable {
@@ -107,6 +108,13 @@ public class GZIPHeader implements Cloneable {
   }
 
   void put(Deflate d){
+    byte[] header = getBytes(d.level);
+    d.put_byte(header, 0, header.length);
+  }
+
+  // Serialize the header as it appears at the top of a gzip member
+  // compressed at the given level.
+  byte[] getBytes(int level){
     int flag = 0;
     if(text){
       flag |= 1;     // FTEXT
@@ -124,38 +132,41 @@ public class GZIPHeader implements Cloneable {
       flag |= 16;   // FCOMMENT
     }
     int xfl = 0;
-    if(d.level == JZlib.Z_BEST_SPEED){
+    if(level == JZlib.Z_BEST_SPEED){
       xfl |= 4;
     }
-    else if (d.level == JZlib.Z_BEST_COMPRESSION){
+    else if (level >= JZlib.Z_BEST_COMPRESSION){
       xfl |= 2;
     }
 
-    d.put_short((short)0x8b1f);  // ID1 ID2
-    d.put_byte((byte)8);         // CM(Compression Method)
-    d.put_byte((byte)flag);
-    d.put_byte((byte)mtime);
-    d.put_byte((byte)(mtime>>8));
-    d.put_byte((byte)(mtime>>16));
-    d.put_byte((byte)(mtime>>24));
-    d.put_byte((byte)xfl);
-    d.put_byte((byte)os);
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    b.write(0x1f);              // ID1
+    b.write(0x8b);              // ID2
+    b.write(8);                 // CM(Compression Method)
+    b.write(flag);
+    b.write((int)mtime);
+    b.write((int)(mtime>>8));
+    b.write((int)(mtime>>16));
+    b.write((int)(mtime>>24));
+    b.write(xfl);
+    b.write(os);
 
     if(extra!=null){
-      d.put_byte((byte)extra.length);
-      d.put_byte((byte)(extra.length>>8));
-      d.put_byte(extra, 0, extra.length);
+      b.write(extra.length);
+      b.write(extra.length>>8);
+      b.write(extra, 0, extra.length);
     }
 
     if(name!=null){
-      d.put_byte(name, 0, name.length);
-      d.put_byte((byte)0);
+      b.write(name, 0, name.length);
+      b.write(0);
     }
 
     if(comment!=null){
-      d.put_byte(comment, 0, comment.length);
-      d.put_byte((byte)0);
+      b.write(comment, 0, comment.length);
+      b.write(0);
     }
+    return b.toByteArray();
   }
 
   public Object clone() throws CloneNotSupportedException {
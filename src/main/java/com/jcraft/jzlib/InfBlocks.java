@@ -34,7 +34,14 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
-final class InfBlocks{
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Extended by InfBlocks64, which overrides proc() and the methods below
+// which depend on its states.
+class InfBlocks{
   static final private int MANY=1440;
 
   // And'ing with mask[n] masks the lower n bits
@@ -93,13 +100,33 @@ final class InfBlocks{
   int end;             // one byte after sliding window 
   int read;            // window read pointer 
   int write;           // window write pointer 
+  byte[] dict;         // shared dictionary before the output, or null
   private boolean check;
 
   InfTree inftree=new InfTree();
 
+  private final Allocator allocator; // supplies hufts and window, if set
+
+  // If the allocator fails, hufts or window is left null, and the caller
+  // gives up with Z_MEM_ERROR.
   InfBlocks(ZStream z, int w){
-    hufts=new int[MANY*3];
-    window=new byte[w];
+    allocator=z.allocator;
+    if(allocator == null){
+      hufts=new int[MANY*3];
+      window=new byte[w];
+    }
+    else{
+      hufts=allocator.allocInts(MANY*3);
+      if(hufts != null && hufts.length != MANY*3){
+        allocator.free(hufts);
+        hufts=null;
+      }
+      window=allocator.allocBytes(w);
+      if(window != null && window.length != w){
+        allocator.free(window);
+        window=null;
+      }
+    }
     end=w;
     this.check = (z.istate.wrap==0) ? false : true;
     mode = TYPE;
@@ -116,6 +143,7 @@ final class InfBlocks{
     bitk=0;
     bitb=0;
     read=write=0;
+    dict=null;
     if(check){
       z.adler.reset();
     }
@@ -532,16 +560,103 @@ final class InfBlocks{
 
   void free(ZStream z){
     reset(z);
+    if(allocator != null){
+      if(window != null) allocator.free(window);
+      if(hufts != null) allocator.free(hufts);
+    }
     window=null;
     hufts=null;
     //ZFREE(z, s);
   }
 
+  // Write the state for Inflate#inflateCheckpoint: the bit buffer, the
+  // whole window, and the tables while a dynamic block is read or
+  // decoded. The shared dictionary is left to the caller.
+  void save(DataOutputStream out) throws IOException {
+    out.writeByte(mode);
+    out.writeInt(left);
+    out.writeInt(table);
+    out.writeInt(index);
+    out.writeInt(blens == null ? -1 : blens.length);
+    if(blens != null){
+      for(int i=0; i<blens.length; i++) out.writeByte(blens[i]);
+    }
+    out.writeByte(bb[0]);
+    out.writeInt(tb[0]);
+    out.writeByte(last);
+    out.writeByte(bitk);
+    out.writeInt(bitb);
+    out.writeInt(read);
+    out.writeInt(write);
+    out.write(window, 0, end);
+    if(mode == BTREE || mode == DTREE || mode == CODES){
+      ByteBuffer buf = ByteBuffer.allocate(hufts.length*4);
+      buf.asIntBuffer().put(hufts);
+      out.write(buf.array());
+    }
+    if(mode == CODES){
+      codes.save(out, hufts);
+    }
+  }
+
+  void load(DataInputStream in) throws IOException {
+    mode = in.readByte();
+    left = in.readInt();
+    table = in.readInt();
+    index = in.readInt();
+    int n = in.readInt();
+    if(n < -1 || n > 258+31+31)
+      throw new IOException("invalid blocks state");
+    blens = n == -1 ? null : new int[n];
+    for(int i=0; i<n; i++) blens[i] = in.readByte();
+    bb[0] = in.readByte();
+    tb[0] = in.readInt();
+    last = in.readByte();
+    bitk = in.readByte();
+    bitb = in.readInt();
+    read = in.readInt();
+    write = in.readInt();
+    in.readFully(window, 0, end);
+    if(mode < TYPE || mode > BAD || left < 0 || index < 0 ||
+       bitk < 0 || bitk > 32 || read < 0 || read > end ||
+       write < 0 || write > end || tb[0] < -1 || tb[0] >= MANY ||
+       ((mode == BTREE || mode == DTREE) && (blens == null ||
+        258 + (table & 0x1f) + ((table >> 5) & 0x1f) > blens.length ||
+        index > (mode == BTREE ? 19 : blens.length))))
+      throw new IOException("invalid blocks state");
+    if(mode == BTREE || mode == DTREE || mode == CODES){
+      byte[] buf = new byte[hufts.length*4];
+      in.readFully(buf);
+      ByteBuffer.wrap(buf).asIntBuffer().get(hufts);
+    }
+    if(mode == CODES){
+      codes.load(in, hufts);
+    }
+  }
+
   void set_dictionary(byte[] d, int start, int n){
     System.arraycopy(d, start, window, 0, n);
     read = write = n;
   }
 
+  // Let back-references beyond the start of the output read from d,
+  // which is not copied, and must not be modified.
+  void share_dictionary(byte[] d){
+    dict = d;
+  }
+
+  // Return how many of the bytes dist back from the write pointer q lie
+  // before the output of the stream, in the shared dictionary. Until the
+  // window wraps around, the output so far is window[0..q).
+  int dict_back(ZStream z, int q, int dist){
+    if(dict == null || q >= dist || dist > end)
+      return 0;
+    long have = z.total_out + (q >= read ? q-read : q+end-read);
+    if(have >= dist || dist-have > dict.length)
+      return 0;
+    return dist-(int)have;
+  }
+
   // Returns true if inflate is currently at the end of a block generated
   // by Z_SYNC_FLUSH or Z_FULL_FLUSH. 
   int sync_point(){
@@ -0,0 +1,750 @@
+/* -*-mode:java; c-basic-offset:2; -*- */
+/*
+Copyright (c) 2000,2001,2002,2003 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/*
+ * This program is based on zlib-1.1.3, so all credit should go authors
+ * Jean-loup Gailly(jloup@gzip.org) and Mark Adler(madler@alumni.caltech.edu)
+ * and contributors of zlib.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// The inflate engine selected by Inflater#setEngine64, after inflate.c and
+// inffast.c of zlib 1.2. It decodes the blocks, the tables and the codes
+// in a single state machine, with a 64-bit bit buffer, and the packed
+// tables of InfTable. While there are 8 bytes of input and room for a
+// longest match in the window, inflate_fast decodes in a tight loop which
+// refills the bit buffer with 8 bytes at a time. The window, its flushing
+// to the output and the shared dictionary are those of InfBlocks.
+final class InfBlocks64 extends InfBlocks{
+
+  static final private int Z_OK=0;
+  static final private int Z_STREAM_END=1;
+  static final private int Z_STREAM_ERROR=-2;
+  static final private int Z_DATA_ERROR=-3;
+  static final private int Z_BUF_ERROR=-5;
+
+  static final private int TYPE=0;     // get type bits (3, including end bit)
+  static final private int LENS=1;     // get lengths for stored
+  static final private int STORED=2;   // processing stored block
+  static final private int TABLE=3;    // get table lengths
+  static final private int LENLENS=4;  // get code lengths for code length code
+  static final private int CODELENS=5; // get lengths for the literal/length
+                                       // and distance codes
+  static final private int LEN=6;      // get length/literal/eob next
+  static final private int LENEXT=7;   // get length extra bits
+  static final private int DIST=8;     // get distance code
+  static final private int DISTEXT=9;  // get distance extra bits
+  static final private int MATCH=10;   // copy the match to the window
+  static final private int LIT=11;     // write the literal to the window
+  static final private int DRY=12;     // output remaining window bytes
+  static final private int DONE=13;    // finished last block, done
+  static final private int BAD=14;     // got a data error--stuck here
+
+  static final private int MAX_MATCH=258;
+
+  // the root bits of the dynamic tables, that of the literal/length one
+  // enough to join most literals of text in pairs, and the room of the
+  // distance one
+  static final private int LENBITS=11;
+  static final private int DISTBITS=8;
+  static final private int ENOUGH_DISTS=1024;
+
+  static final private int[] order = { // order of the code length codes
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+  };
+
+  long hold;           // bit buffer
+  int bits;            // bits in bit buffer
+  boolean full;        // set once the window has been filled
+
+  int length;          // literal or length of the match
+  int offset;          // distance of the match
+  int extra;           // extra bits needed
+
+  int ncode;           // number of code length code lengths
+  int nlen;            // number of length code lengths
+  int ndist;           // number of distance code lengths
+  int have;            // number of code lengths in lens
+  int[] lens=new int[320];  // code lengths
+  int[] work=new int[288];  // work area for InfTable
+
+  int[] lcode;         // literal/length table, hufts or the fixed one
+  int lindex;
+  int lbits;           // index bits of lcode
+  int[] lpairs;        // root table of lcode, with pairs of literals
+  int[] dcode;         // distance table
+  int dindex;
+  int dbits;           // index bits of dcode
+
+  private int result;             // the result of proc, so far
+  private long start_in;          // z.total_in when proc was called
+  private byte[] in;              // the array viewed by in_view
+  private ByteBuffer in_view;     // little-endian view of z.next_in
+
+  private final int[] pairs=new int[1<<LENBITS];
+  private final int[] next=new int[1];
+  private final int[] nbits=new int[1];
+
+  InfBlocks64(ZStream z, int w){
+    super(z, w);
+  }
+
+  void reset(ZStream z){
+    super.reset(z);
+    mode=TYPE;
+    hold=0;
+    bits=0;
+    full=false;
+  }
+
+  // Pull bytes into the bit buffer until it has n bits, and return
+  // false if the input runs out first.
+  private boolean need(ZStream z, int n){
+    while(bits < n){
+      if(z.avail_in == 0) return false;
+      z.avail_in--; z.total_in++;
+      hold |= (long)(z.next_in[z.next_in_index++]&0xff) << bits;
+      bits += 8;
+    }
+    return true;
+  }
+
+  private void drop(int n){
+    hold >>>= n;
+    bits -= n;
+  }
+
+  // Return the room after write, wrapping write around, and flushing the
+  // window to make some if there is none.
+  private int room(ZStream z){
+    int m = write < read ? read-write-1 : end-write;
+    if(m == 0){
+      if(write == end && read != 0){
+        full = true;
+        write = 0;
+        m = read-1;
+      }
+      if(m == 0){
+        result = inflate_flush(z, result);
+        m = write < read ? read-write-1 : end-write;
+        if(write == end && read != 0){
+          full = true;
+          write = 0;
+          m = read-1;
+        }
+      }
+    }
+    return m;
+  }
+
+  private int leave(ZStream z){
+    if(result == Z_BUF_ERROR && z.total_in != start_in) result = Z_OK;
+    return inflate_flush(z, result);
+  }
+
+  private int bad(ZStream z, String msg){
+    mode = BAD;
+    z.msg = msg;
+    result = Z_DATA_ERROR;
+    return leave(z);
+  }
+
+  int inflate_flush(ZStream z, int r){
+    if(write == end) full = true;
+    return super.inflate_flush(z, r);
+  }
+
+  int proc(ZStream z, int r){
+    int here, m;
+
+    result = r;
+    start_in = z.total_in;
+
+    while(true){
+      switch(mode){
+      case TYPE:
+        if(!need(z, 3)) return leave(z);
+        last = (int)hold & 1;
+        switch(((int)hold >>> 1) & 3){
+        case 0:                         // stored
+          drop(3);
+          drop(bits & 7);               // go to byte boundary
+          mode = LENS;
+          break;
+        case 1:                         // fixed
+          lcode = InfTable.fixed_lens;
+          lindex = 0;
+          lbits = InfTable.fixed_lbits;
+          lpairs = InfTable.fixed_pairs;
+          dcode = InfTable.fixed_dists;
+          dindex = 0;
+          dbits = InfTable.fixed_dbits;
+          drop(3);
+          mode = LEN;
+          break;
+        case 2:                         // dynamic
+          drop(3);
+          mode = TABLE;
+          break;
+        default:
+          drop(3);
+          return bad(z, "invalid block type");
+        }
+        break;
+      case LENS:
+        if(!need(z, 32)) return leave(z);
+        if((((int)hold >>> 16) & 0xffff) != (((int)hold & 0xffff) ^ 0xffff))
+          return bad(z, "invalid stored block lengths");
+        left = (int)hold & 0xffff;
+        hold = 0;
+        bits = 0;
+        mode = left != 0 ? STORED : (last != 0 ? DRY : TYPE);
+        break;
+      case STORED:
+        if(z.avail_in == 0) return leave(z);
+        m = room(z);
+        if(m == 0) return leave(z);
+        int t = left;
+        if(t > z.avail_in) t = z.avail_in;
+        if(t > m) t = m;
+        System.arraycopy(z.next_in, z.next_in_index, window, write, t);
+        z.next_in_index += t; z.avail_in -= t; z.total_in += t;
+        write += t;
+        if((left -= t) != 0)
+          break;
+        mode = last != 0 ? DRY : TYPE;
+        break;
+      case TABLE:
+        if(!need(z, 14)) return leave(z);
+        nlen = ((int)hold & 0x1f) + 257;
+        ndist = (((int)hold >>> 5) & 0x1f) + 1;
+        ncode = (((int)hold >>> 10) & 0xf) + 4;
+        drop(14);
+        if(nlen > 286 || ndist > 30)
+          return bad(z, "too many length or distance symbols");
+        have = 0;
+        mode = LENLENS;
+      case LENLENS:
+        while(have < ncode){
+          if(!need(z, 3)) return leave(z);
+          lens[order[have++]] = (int)hold & 7;
+          drop(3);
+        }
+        while(have < 19)
+          lens[order[have++]] = 0;
+        next[0] = 0;
+        nbits[0] = 7;
+        if(InfTable.inflate_table(InfTable.CODES, lens, 0, 19, hufts, next,
+                                  hufts.length, nbits, work) != 0)
+          return bad(z, "invalid code lengths set");
+        lcode = hufts;
+        lindex = 0;
+        lbits = nbits[0];
+        have = 0;
+        mode = CODELENS;
+      case CODELENS:
+        while(have < nlen + ndist){
+          while(true){
+            here = lcode[lindex + ((int)hold & ((1<<lbits)-1))];
+            if((here & 0xff) <= bits) break;
+            if(!need(z, bits+8)) return leave(z);
+          }
+          int val = here >>> 16;
+          int hbits = here & 0xff;
+          if(val < 16){
+            drop(hbits);
+            lens[have++] = val;
+          }
+          else{
+            int len, copy;
+            if(val == 16){
+              if(!need(z, hbits + 2)) return leave(z);
+              drop(hbits);
+              if(have == 0)
+                return bad(z, "invalid bit length repeat");
+              len = lens[have - 1];
+              copy = 3 + ((int)hold & 3);
+              drop(2);
+            }
+            else if(val == 17){
+              if(!need(z, hbits + 3)) return leave(z);
+              drop(hbits);
+              len = 0;
+              copy = 3 + ((int)hold & 7);
+              drop(3);
+            }
+            else{
+              if(!need(z, hbits + 7)) return leave(z);
+              drop(hbits);
+              len = 0;
+              copy = 11 + ((int)hold & 0x7f);
+              drop(7);
+            }
+            if(have + copy > nlen + ndist)
+              return bad(z, "invalid bit length repeat");
+            while(copy-- != 0)
+              lens[have++] = len;
+          }
+        }
+
+        // check for end-of-block code (better have one)
+        if(lens[256] == 0)
+          return bad(z, "invalid code -- missing end-of-block");
+
+        // build the tables over the code length one, no longer needed
+        next[0] = 0;
+        nbits[0] = LENBITS;
+        if(InfTable.inflate_table(InfTable.LENS, lens, 0, nlen, hufts, next,
+                                  hufts.length-ENOUGH_DISTS, nbits, work) != 0)
+          return bad(z, "invalid literal/lengths set");
+        lcode = hufts;
+        lindex = 0;
+        lbits = nbits[0];
+        dcode = hufts;
+        dindex = next[0];
+        nbits[0] = DISTBITS;
+        if(InfTable.inflate_table(InfTable.DISTS, lens, nlen, ndist, hufts,
+                                  next, hufts.length-dindex, nbits, work) != 0)
+          return bad(z, "invalid distances set");
+        dbits = nbits[0];
+        InfTable.inflate_pairs(lcode, lindex, lbits, pairs);
+        lpairs = pairs;
+        mode = LEN;
+      case LEN:
+        if(z.avail_in >= 8){
+          m = write < read ? read-write-1 : end-write;
+          if(m >= MAX_MATCH){
+            inflate_fast(z);
+            if(mode == BAD){
+              result = Z_DATA_ERROR;
+              return leave(z);
+            }
+            break;
+          }
+        }
+        while(true){
+          here = lcode[lindex + ((int)hold & ((1<<lbits)-1))];
+          if((here & 0xff) <= bits) break;
+          if(!need(z, bits+8)) return leave(z);
+        }
+        int op = (here >>> 8) & 0xff;
+        if(op != 0 && (op & 0xf0) == 0){
+          // a link to a sub-table
+          int link = here;
+          int lb = link & 0xff;
+          while(true){
+            here = lcode[lindex + (link >>> 16) +
+                         (((int)hold >>> lb) & ((1<<op)-1))];
+            if(lb + (here & 0xff) <= bits) break;
+            if(!need(z, bits+8)) return leave(z);
+          }
+          drop(lb);
+          op = (here >>> 8) & 0xff;
+        }
+        drop(here & 0xff);
+        length = here >>> 16;
+        if(op == 0){
+          mode = LIT;
+          break;
+        }
+        if((op & 32) != 0){
+          mode = last != 0 ? DRY : TYPE;
+          break;
+        }
+        if((op & 64) != 0)
+          return bad(z, "invalid literal/length code");
+        extra = op & 15;
+        mode = LENEXT;
+      case LENEXT:
+        if(extra != 0){
+          if(!need(z, extra)) return leave(z);
+          length += (int)hold & ((1<<extra)-1);
+          drop(extra);
+        }
+        mode = DIST;
+      case DIST:
+        while(true){
+          here = dcode[dindex + ((int)hold & ((1<<dbits)-1))];
+          if((here & 0xff) <= bits) break;
+          if(!need(z, bits+8)) return leave(z);
+        }
+        op = (here >>> 8) & 0xff;
+        if((op & 0xf0) == 0){
+          int link = here;
+          int lb = link & 0xff;
+          while(true){
+            here = dcode[dindex + (link >>> 16) +
+                         (((int)hold >>> lb) & ((1<<op)-1))];
+            if(lb + (here & 0xff) <= bits) break;
+            if(!need(z, bits+8)) return leave(z);
+          }
+          drop(lb);
+          op = (here >>> 8) & 0xff;
+        }
+        drop(here & 0xff);
+        if((op & 64) != 0)
+          return bad(z, "invalid distance code");
+        offset = here >>> 16;
+        extra = op & 15;
+        mode = DISTEXT;
+      case DISTEXT:
+        if(extra != 0){
+          if(!need(z, extra)) return leave(z);
+          offset += (int)hold & ((1<<extra)-1);
+          drop(extra);
+        }
+        if(offset > write && (!full || offset > end) &&
+           dict_back(z, write, offset) == 0)
+          return bad(z, "invalid distance too far back");
+        mode = MATCH;
+      case MATCH:
+        {
+          // bytes from the shared dictionary, before those of the window
+          int j = dict_back(z, write, offset);
+          int f = write - offset;
+          if(f < 0) f += end;
+          while(length != 0){
+            m = room(z);
+            if(m == 0) return leave(z);
+            if(j != 0){   // f reaches end with the last of them
+              window[write++] = dict[dict.length - j--];
+              f++;
+            }
+            else{
+              window[write++] = window[f++];
+            }
+            if(f == end) f = 0;
+            length--;
+          }
+        }
+        mode = LEN;
+        break;
+      case LIT:
+        if(room(z) == 0) return leave(z);
+        window[write++] = (byte)length;
+        mode = LEN;
+        break;
+      case DRY:
+        drop(bits & 7);
+        result = inflate_flush(z, result);
+        if(read != write) return leave(z);
+        mode = DONE;
+      case DONE:
+        result = Z_STREAM_END;
+        return leave(z);
+      case BAD:
+        result = Z_DATA_ERROR;
+        return leave(z);
+      default:
+        result = Z_STREAM_ERROR;
+        return leave(z);
+      }
+    }
+  }
+
+  // Decode literals and matches while there are 8 bytes of input and
+  // room for a longest match after write, and until the end of the block.
+  // The bit buffer is refilled with 8 bytes at a time, which leave it
+  // with at least 56 bits, enough for a length and a distance with their
+  // extra bits. A literal/length code is looked up in lpairs first, which
+  // gives two literals at once if both codes fit in its index bits. On
+  // return, the whole bytes left in the bit buffer are given back to the
+  // input.
+  private void inflate_fast(ZStream z){
+    if(in != z.next_in){
+      in = z.next_in;
+      in_view = ByteBuffer.wrap(in).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    ByteBuffer view = in_view;
+    byte[] win = window;
+    int[] lp = lpairs, lc = lcode, dc = dcode;
+    int li = lindex, di = dindex;
+    int lmask = (1<<lbits)-1, dmask = (1<<dbits)-1;
+
+    int start = z.next_in_index;
+    int p = start;
+    int plast = start + z.avail_in - 8;
+    int q = write;
+    int qlast = (q < read ? read-1 : end) - MAX_MATCH;
+    long h = hold;
+    int k = bits;
+
+    int here, op, len, dist, e, f;
+
+    do{
+      if(k < 48){
+        h |= view.getLong(p) << k;
+        p += (63-k) >>> 3;
+        k |= 56;
+      }
+
+      here = lp[(int)h & lmask];
+      op = (here >>> 8) & 0xff;
+      if((op & 0x7f) == 0){             // one or two literals
+        e = here & 0xff;
+        h >>>= e; k -= e;
+        // the second, if any, first, so that a single one overwrites it
+        e = op >>> 7;
+        win[q + e] = (byte)(here >>> 24);
+        win[q] = (byte)(here >>> 16);
+        q += e + 1;
+        continue;
+      }
+      if(op != 0 && (op & 0xf0) == 0){
+        e = here & 0xff;
+        h >>>= e; k -= e;
+        here = lc[li + (here >>> 16) + ((int)h & ((1<<op)-1))];
+        op = (here >>> 8) & 0xff;
+      }
+      e = here & 0xff;
+      h >>>= e; k -= e;
+
+      if(op == 0){                      // literal
+        win[q++] = (byte)(here >>> 16);
+        continue;
+      }
+      if((op & 16) == 0){
+        if((op & 32) != 0){
+          mode = last != 0 ? DRY : TYPE;
+        }
+        else{
+          mode = BAD;
+          z.msg = "invalid literal/length code";
+        }
+        break;
+      }
+
+      // length base and extra bits
+      len = here >>> 16;
+      e = op & 15;
+      len += (int)h & ((1<<e)-1);
+      h >>>= e; k -= e;
+
+      // distance code, base and extra bits
+      here = dc[di + ((int)h & dmask)];
+      op = (here >>> 8) & 0xff;
+      if((op & 0xf0) == 0){
+        e = here & 0xff;
+        h >>>= e; k -= e;
+        here = dc[di + (here >>> 16) + ((int)h & ((1<<op)-1))];
+        op = (here >>> 8) & 0xff;
+      }
+      e = here & 0xff;
+      h >>>= e; k -= e;
+      if((op & 16) == 0){
+        mode = BAD;
+        z.msg = "invalid distance code";
+        break;
+      }
+      dist = here >>> 16;
+      e = op & 15;
+      dist += (int)h & ((1<<e)-1);
+      h >>>= e; k -= e;
+
+      if(dist <= q){                    // within the output after wrap
+        f = q - dist;
+      }
+      else if(dict != null && (e = dict_back(z, q, dist)) != 0){
+        // before the output, in the shared dictionary
+        f = dict.length - e;
+        if(e > len) e = len;
+        System.arraycopy(dict, f, win, q, e);
+        q += e; len -= e;
+        f = 0;                          // copy rest from start of window
+      }
+      else if(!full || dist > end){
+        mode = BAD;
+        z.msg = "invalid distance too far back";
+        break;
+      }
+      else{                             // at the end of the window
+        f = q - dist + end;
+        e = end - f;
+        if(len <= e){
+          System.arraycopy(win, f, win, q, len);
+          q += len;
+          continue;
+        }
+        System.arraycopy(win, f, win, q, e);
+        q += e; len -= e;
+        f = 0;                          // copy rest from start of window
+      }
+
+      // the source may overlap the bytes copied, which repeat every q-f;
+      // short matches are copied a byte at a time, cheaper than arraycopy
+      if(len <= 16){
+        while(len-- != 0) win[q++] = win[f++];
+      }
+      else if(len <= q - f){
+        System.arraycopy(win, f, win, q, len);
+        q += len;
+      }
+      else{
+        do{
+          e = q - f;
+          if(e > len) e = len;
+          System.arraycopy(win, f, win, q, e);
+          q += e; len -= e;
+        }
+        while(len != 0);
+      }
+    }
+    while(p <= plast && q <= qlast);
+
+    // give back the whole bytes left in the bit buffer
+    p -= k >>> 3;
+    k &= 7;
+    hold = h & ((1L<<k)-1);
+    bits = k;
+    z.avail_in -= p - z.next_in_index;
+    z.total_in += p - z.next_in_index;
+    z.next_in_index = p;
+    write = q;
+  }
+
+  // Returns true at the end of a block generated by Z_SYNC_FLUSH or
+  // Z_FULL_FLUSH, as for InfBlocks.
+  int sync_point(){
+    return mode == LENS && bits == 0 ? 1 : 0;
+  }
+
+  // The tables are not saved, but built again from the code lengths,
+  // except for that of the code length code, which is short.
+  void save(DataOutputStream out) throws IOException {
+    out.writeByte(mode);
+    out.writeInt(left);
+    out.writeByte(last);
+    out.writeLong(hold);
+    out.writeByte(bits);
+    out.writeBoolean(full);
+    out.writeInt(length);
+    out.writeInt(offset);
+    out.writeByte(extra);
+    out.writeShort(ncode);
+    out.writeShort(nlen);
+    out.writeShort(ndist);
+    out.writeShort(have);
+    for(int i=0; i<lens.length; i++) out.writeByte(lens[i]);
+    out.writeBoolean(lcode == InfTable.fixed_lens);
+    if(mode == CODELENS){
+      out.writeByte(lbits);
+      for(int i=0; i<1<<lbits; i++) out.writeInt(hufts[i]);
+    }
+    out.writeInt(read);
+    out.writeInt(write);
+    out.write(window, 0, end);
+  }
+
+  void load(DataInputStream in) throws IOException {
+    mode = in.readByte();
+    left = in.readInt();
+    last = in.readByte();
+    hold = in.readLong();
+    bits = in.readByte();
+    full = in.readBoolean();
+    length = in.readInt();
+    offset = in.readInt();
+    extra = in.readByte();
+    ncode = in.readShort();
+    nlen = in.readShort();
+    ndist = in.readShort();
+    have = in.readShort();
+    for(int i=0; i<lens.length; i++) lens[i] = in.readByte();
+    boolean fixed = in.readBoolean();
+    if(mode < TYPE || mode > BAD || left < 0 || left > 0xffff ||
+       bits < 0 || bits > 56 || (hold >>> bits) != 0 ||
+       length < 0 || length > MAX_MATCH || offset < 0 || offset > 32768 ||
+       extra < 0 || extra > 13 || ncode < 0 || ncode > 19 ||
+       nlen < 0 || nlen > 286 || ndist < 0 || ndist > 30 || have < 0 ||
+       have > (mode == LENLENS ? 19 : nlen + ndist))
+      throw new IOException("invalid blocks state");
+    for(int i=0; i<lens.length; i++){
+      if(lens[i] < 0 || lens[i] > 15)
+        throw new IOException("invalid blocks state");
+    }
+
+    if(mode == CODELENS){
+      lcode = hufts;
+      lindex = 0;
+      lbits = in.readByte();
+      if(lbits < 1 || lbits > 7)
+        throw new IOException("invalid blocks state");
+      for(int i=0; i<1<<lbits; i++){
+        int here = hufts[i] = in.readInt();
+        int op = (here >>> 8) & 0xff;
+        if((here >>> 16) > 18 || (op != 0 && op != 64) ||
+           (here & 0xff) < 1 || (here & 0xff) > lbits)
+          throw new IOException("invalid blocks state");
+      }
+    }
+    else if(mode >= LEN && mode <= LIT){
+      if(fixed){
+        lcode = InfTable.fixed_lens;
+        lindex = 0;
+        lbits = InfTable.fixed_lbits;
+        lpairs = InfTable.fixed_pairs;
+        dcode = InfTable.fixed_dists;
+        dindex = 0;
+        dbits = InfTable.fixed_dbits;
+      }
+      else{
+        next[0] = 0;
+        nbits[0] = LENBITS;
+        if(nlen < 257 || ndist < 1 ||
+           InfTable.inflate_table(InfTable.LENS, lens, 0, nlen, hufts, next,
+                                  hufts.length-ENOUGH_DISTS, nbits, work) != 0)
+          throw new IOException("invalid blocks state");
+        lcode = hufts;
+        lindex = 0;
+        lbits = nbits[0];
+        dcode = hufts;
+        dindex = next[0];
+        nbits[0] = DISTBITS;
+        if(InfTable.inflate_table(InfTable.DISTS, lens, nlen, ndist, hufts,
+                                  next, hufts.length-dindex, nbits, work) != 0)
+          throw new IOException("invalid blocks state");
+        dbits = nbits[0];
+        InfTable.inflate_pairs(lcode, lindex, lbits, pairs);
+        lpairs = pairs;
+      }
+    }
+
+    read = in.readInt();
+    write = in.readInt();
+    in.readFully(window, 0, end);
+    if(read < 0 || read > end || write < 0 || write > end)
+      throw new IOException("invalid blocks state");
+  }
+}
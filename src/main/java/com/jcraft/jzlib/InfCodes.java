@@ -34,6 +34,10 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 final class InfCodes{
 
   static final private int[] inflate_mask = {
@@ -292,6 +296,7 @@ final class InfCodes{
 
 	mode = COPY;
       case COPY:          // o: copying bytes in window, waiting for space
+        j = s.dict_back(z, q, dist); // bytes from the shared dictionary
         f = q - dist;
         while(f < 0){     // modulo window size-"while" instead
           f += s.end;     // of "if" handles invalid distances
@@ -315,7 +320,12 @@ final class InfCodes{
 	    }
 	  }
 
-	  s.window[q++]=s.window[f++]; m--;
+	  if(j != 0){     // f reaches s.end with the last of them
+	    s.window[q++]=s.dict[s.dict.length-j--]; f++; m--;
+	  }
+	  else{
+	    s.window[q++]=s.window[f++]; m--;
+	  }
 
 	  if (f == s.end)
             f = 0;
@@ -393,6 +403,68 @@ final class InfCodes{
     //  ZFREE(z, c);
   }
 
+  // Write the state for Inflate#inflateCheckpoint. The trees are in
+  // hufts, unless they are the fixed ones.
+  void save(DataOutputStream out, int[] hufts) throws IOException {
+    out.writeByte(mode);
+    out.writeInt(len);
+    out.writeInt(need);
+    out.writeInt(lit);
+    out.writeInt(get);
+    out.writeInt(dist);
+    out.writeByte(lbits);
+    out.writeByte(dbits);
+    out.writeByte(tree_id(tree, hufts));
+    out.writeInt(tree_index);
+    out.writeByte(tree_id(ltree, hufts));
+    out.writeInt(ltree_index);
+    out.writeByte(tree_id(dtree, hufts));
+    out.writeInt(dtree_index);
+  }
+
+  void load(DataInputStream in, int[] hufts) throws IOException {
+    mode = in.readByte();
+    len = in.readInt();
+    need = in.readInt();
+    lit = in.readInt();
+    get = in.readInt();
+    dist = in.readInt();
+    lbits = in.readByte();
+    dbits = in.readByte();
+    tree = tree(in.readByte(), hufts);
+    tree_index = in.readInt();
+    ltree = tree(in.readByte(), hufts);
+    ltree_index = in.readInt();
+    dtree = tree(in.readByte(), hufts);
+    dtree_index = in.readInt();
+    if(mode < START || mode > BADCODE || need < 0 || need > 16 ||
+       get < 0 || get > 16 || lbits < 0 || lbits > 9 ||
+       dbits < 0 || dbits > 9 || !in_tree(tree, tree_index) ||
+       !in_tree(ltree, ltree_index) || !in_tree(dtree, dtree_index))
+      throw new IOException("invalid codes state");
+  }
+
+  private static boolean in_tree(int[] tree, int index){
+    return tree == null || (index >= 0 && index < tree.length/3);
+  }
+
+  private static int tree_id(int[] tree, int[] hufts){
+    if(tree == null) return 0;
+    if(tree == hufts) return 1;
+    if(tree == InfTree.fixed_tl) return 2;
+    return 3; // InfTree.fixed_td
+  }
+
+  private static int[] tree(int id, int[] hufts) throws IOException {
+    switch(id){
+    case 0: return null;
+    case 1: return hufts;
+    case 2: return InfTree.fixed_tl;
+    case 3: return InfTree.fixed_td;
+    default: throw new IOException("invalid codes state");
+    }
+  }
+
   // Called with number of bytes left to write in window at least 258
   // (the maximum string length) and number of input bytes available
   // at least ten.  The ten bytes are six bytes for the longest length/
@@ -500,6 +572,14 @@ final class InfCodes{
 		  q+=2; r+=2; c-=2;
 		}
 	      }
+	      else if((e=s.dict_back(z, q, d))!=0){
+		// offset before the output, in the shared dictionary
+		r=s.dict.length-e;
+		if(e>c) e=c;
+		System.arraycopy(s.dict, r, s.window, q, e);
+		q+=e; c-=e;
+		r = 0;                    // copy rest from start of window
+	      }
 	      else{                  // else offset after destination
                 r=q-d;
                 do{
@@ -0,0 +1,297 @@
+/* -*-mode:java; c-basic-offset:2; -*- */
+/*
+Copyright (c) 2000,2001,2002,2003 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/*
+ * This program is based on zlib-1.1.3, so all credit should go authors
+ * Jean-loup Gailly(jloup@gzip.org) and Mark Adler(madler@alumni.caltech.edu)
+ * and contributors of zlib.
+ */
+
+package com.jcraft.jzlib;
+
+// The decoding tables of InfBlocks64, built as in inftrees.c of zlib 1.2.
+// An entry is packed into an int as val<<16 | op<<8 | bits, where bits is
+// the number of bits of the code, or of the part of it in this table,
+// and op is
+//   0         a literal, val
+//   0000tttt  a link to the sub-table at val, indexed by tttt more bits
+//   0001eeee  a length or distance base val, with eeee extra bits
+//   01100000  the end of the block
+//   01000000  an invalid code
+//   10000000  two literals, the first in the low byte of val, only in the
+//             tables of inflate_pairs
+final class InfTable{
+
+  static final private int MAXBITS=15;
+
+  static final int CODES=0;
+  static final int LENS=1;
+  static final int DISTS=2;
+
+  // Length codes 257..285 base and extra bits, as op values
+  static final private int[] lbase = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+    35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258, 0, 0
+  };
+  static final private int[] lext = {
+    16, 16, 16, 16, 16, 16, 16, 16, 17, 17, 17, 17, 18, 18, 18, 18,
+    19, 19, 19, 19, 20, 20, 20, 20, 21, 21, 21, 21, 16, 64, 64
+  };
+
+  // Distance codes 0..29 base and extra bits, as op values
+  static final private int[] dbase = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+    257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+    8193, 12289, 16385, 24577, 0, 0
+  };
+  static final private int[] dext = {
+    16, 16, 16, 16, 17, 17, 18, 18, 19, 19, 20, 20, 21, 21, 22, 22,
+    23, 23, 24, 24, 25, 25, 26, 26, 27, 27, 28, 28, 29, 29, 64, 64
+  };
+
+  // The tables of the fixed codes, indexed by 9 and 5 bits
+  static final int fixed_lbits = 9;
+  static final int fixed_dbits = 5;
+  static final int[] fixed_lens;
+  static final int[] fixed_dists;
+  static final int[] fixed_pairs;
+
+  static{
+    int[] lens = new int[288];
+    int[] work = new int[288];
+    int sym = 0;
+    while(sym < 144) lens[sym++] = 8;
+    while(sym < 256) lens[sym++] = 9;
+    while(sym < 280) lens[sym++] = 7;
+    while(sym < 288) lens[sym++] = 8;
+    fixed_lens = new int[1<<fixed_lbits];
+    inflate_table(LENS, lens, 0, 288, fixed_lens, new int[]{0},
+                  fixed_lens.length, new int[]{fixed_lbits}, work);
+
+    for(sym = 0; sym < 32; sym++) lens[sym] = 5;
+    fixed_dists = new int[1<<fixed_dbits];
+    inflate_table(DISTS, lens, 0, 32, fixed_dists, new int[]{0},
+                  fixed_dists.length, new int[]{fixed_dbits}, work);
+
+    fixed_pairs = new int[1<<fixed_lbits];
+    inflate_pairs(fixed_lens, 0, fixed_lbits, fixed_pairs);
+  }
+
+  // Build the table of the codes codes, whose lengths are at lens[off..],
+  // into table at next[0], indexed by bits[0] bits at first. next[0] is
+  // moved past the table, and bits[0] set to the bits it is indexed by.
+  // Return -1 if the lengths do not make a valid code, and 1 if the table
+  // would not fit in the limit entries after next[0]. work holds at least
+  // codes ints.
+  static int inflate_table(int type, int[] lens, int off, int codes,
+                           int[] table, int[] next, int limit,
+                           int[] bits, int[] work){
+    int len, sym, min, max, root, curr, drop;
+    int left, used, huff, incr, fill, low, mask;
+    int here;
+    int base;       // index of the current table in table
+    int[] bases, extra;
+    int match;
+    int[] count = new int[MAXBITS+1];
+    int[] offs = new int[MAXBITS+1];
+
+    // count the number of codes of each length
+    for(sym = 0; sym < codes; sym++) count[lens[off+sym]]++;
+
+    // bound the code lengths, and force root to be within them
+    root = bits[0];
+    for(max = MAXBITS; max >= 1; max--)
+      if(count[max] != 0) break;
+    if(root > max) root = max;
+    base = next[0];
+    if(max == 0){   // no symbols to code at all
+      here = (64<<8) | 1; // invalid code marker, to force an error
+      table[base] = here;
+      table[base+1] = here;
+      next[0] = base+2;
+      bits[0] = 1;
+      return 0;     // no symbols, but wait for decoding to report error
+    }
+    for(min = 1; min < max; min++)
+      if(count[min] != 0) break;
+    if(root < min) root = min;
+
+    // check for an over-subscribed or incomplete set of lengths
+    left = 1;
+    for(len = 1; len <= MAXBITS; len++){
+      left <<= 1;
+      left -= count[len];
+      if(left < 0) return -1;    // over-subscribed
+    }
+    if(left > 0 && (type == CODES || max != 1))
+      return -1;                 // incomplete set
+
+    // sort the symbols by length, and by symbol within each length
+    offs[1] = 0;
+    for(len = 1; len < MAXBITS; len++)
+      offs[len+1] = offs[len] + count[len];
+    for(sym = 0; sym < codes; sym++)
+      if(lens[off+sym] != 0) work[offs[lens[off+sym]]++] = sym;
+
+    switch(type){
+    case CODES:
+      bases = extra = null;      // the symbols are the values
+      match = 20;
+      break;
+    case LENS:
+      bases = lbase;
+      extra = lext;
+      match = 257;
+      break;
+    default:
+      bases = dbase;
+      extra = dext;
+      match = 0;
+    }
+
+    // Fill in the root table, and a sub-table for each prefix of the
+    // codes longer than root.
+    huff = 0;             // starting code
+    sym = 0;              // starting code symbol
+    len = min;            // starting code length
+    curr = root;          // current table index bits
+    drop = 0;             // current bits to drop from code for index
+    low = -1;             // trigger new sub-table when len > root
+    used = 1 << root;     // use root table entries
+    mask = used - 1;      // mask for comparing low
+
+    if(used > limit) return 1;
+
+    int next_table = base; // the table being filled
+    while(true){
+      // create the entry
+      int val, op;
+      if(work[sym] + 1 < match){
+        op = 0;
+        val = work[sym];
+      }
+      else if(work[sym] >= match){
+        op = extra[work[sym] - match];
+        val = bases[work[sym] - match];
+      }
+      else{
+        op = 32 + 64;     // end of block
+        val = 0;
+      }
+      here = (val<<16) | (op<<8) | (len - drop);
+
+      // replicate it in the table for the codes with this prefix
+      incr = 1 << (len - drop);
+      fill = 1 << curr;
+      min = fill;         // save the size of the table
+      do{
+        fill -= incr;
+        table[next_table + (huff >>> drop) + fill] = here;
+      }
+      while(fill != 0);
+
+      // backwards increment the len-bit code huff
+      incr = 1 << (len - 1);
+      while((huff & incr) != 0) incr >>>= 1;
+      if(incr != 0){
+        huff &= incr - 1;
+        huff += incr;
+      }
+      else{
+        huff = 0;
+      }
+
+      // go to the next symbol, and update count and len
+      sym++;
+      if(--count[len] == 0){
+        if(len == max) break;
+        len = lens[off+work[sym]];
+      }
+
+      // create a new sub-table if needed
+      if(len > root && (huff & mask) != low){
+        // on the first one, the root table is indexed by root bits
+        if(drop == 0) drop = root;
+
+        // increment past the last table
+        next_table += min;
+
+        // determine the length of the next table, and the entries used
+        curr = len - drop;
+        left = 1 << curr;
+        while(curr + drop < max){
+          left -= count[curr + drop];
+          if(left <= 0) break;
+          curr++;
+          left <<= 1;
+        }
+
+        used += 1 << curr;
+        if(used > limit) return 1;
+
+        // point the entry of the root table to this sub-table
+        low = huff & mask;
+        table[base + low] = ((next_table - base)<<16) | (curr<<8) | root;
+      }
+    }
+
+    // fill in the remaining entry of an incomplete code, which has
+    // a single code of one bit
+    if(huff != 0){
+      table[next_table + huff] = (64<<8) | (len - drop);
+    }
+
+    next[0] = base + used;
+    bits[0] = root;
+    return 0;
+  }
+
+  // Copy the root table of a literal/length code, at table[index] and
+  // indexed by bits bits, into pairs, joining each literal with the one
+  // after it if the codes of both fit in the bits of the index. Text
+  // spends most of its codes on literals of 4 to 8 bits, which then take
+  // a single lookup for two.
+  static void inflate_pairs(int[] table, int index, int bits, int[] pairs){
+    int n = 1 << bits;
+    for(int i = 0; i < n; i++){
+      int here = table[index + i];
+      int len = here & 0xff;
+      if((here & 0xff00) == 0 && len < bits){
+        // the code after it is indexed by the bits left, and is complete
+        // in them if it is not longer
+        int next = table[index + (i >>> len)];
+        int len2 = next & 0xff;
+        if((next & 0xff00) == 0 && len + len2 <= bits){
+          here = (next & 0xff0000) << 8 | (here & 0xff0000) |
+                 (128<<8) | (len + len2);
+        }
+      }
+      pairs[i] = here;
+    }
+  }
+}
@@ -34,6 +34,14 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 final class Inflate{
   
   static final private int MAX_WBITS=15; // 32K LZ77 window
@@ -85,6 +93,9 @@ final class Inflate{
   static final private int HCRC=22;
   static final private int FLAGS=23;
 
+  static final private int CHECKPOINT_MAGIC=0x4a5a4943; // "JZIC"
+  static final private int CHECKPOINT_VERSION=2;
+
   int mode;                            // current inflate mode
 
   // mode dependent information
@@ -135,6 +146,11 @@ final class Inflate{
   }
 
   int inflateInit(int w){
+    return inflateInit(w, false);
+  }
+
+  // As above, decoding the blocks with InfBlocks64 if engine64 is set.
+  int inflateInit(int w, boolean engine64){
     z.msg = null;
     blocks = null;
 
@@ -161,7 +177,12 @@ final class Inflate{
     // set window size
     wbits=w;
 
-    this.blocks=new InfBlocks(z, 1<<w);
+    this.blocks=engine64 ? new InfBlocks64(z, 1<<w) : new InfBlocks(z, 1<<w);
+    if(blocks.window == null || blocks.hufts == null){
+      inflateEnd();
+      z.msg="insufficient memory";
+      return Z_MEM_ERROR;
+    }
 
     // reset state
     inflateReset();
@@ -552,6 +573,218 @@ final class Inflate{
     return Z_OK;
   }
 
+  // As above, but let back-references before the start of the output read
+  // from the shared dictionary, instead of copying it into the window.
+  int inflateSetDictionary(PreparedDictionary dict){
+    if(z==null || (this.mode != DICT0 && this.wrap != 0)){
+      return Z_STREAM_ERROR;
+    }
+
+    if(this.mode==DICT0 && z.adler.getValue()!=dict.adler){
+      return Z_DATA_ERROR;
+    }
+
+    z.adler.reset();
+
+    this.blocks.share_dictionary(dict.dictionary);
+    this.mode = BLOCKS;
+    return Z_OK;
+  }
+
+  // Write the state of the stream to a byte array, from which
+  // inflateResume continues it, possibly in another process. Unlike a
+  // deflate checkpoint, it may be taken between any two inflate() calls:
+  // the input which has not been consumed is for the caller to give
+  // again, and the output still in the window is kept. Return null after
+  // a data error.
+  byte[] inflateCheckpoint(){
+    if(mode == BAD || blocks == null)
+      return null;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater();
+    deflater.init(JZlib.Z_BEST_SPEED);
+    try{
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(CHECKPOINT_MAGIC);
+      data.writeByte(CHECKPOINT_VERSION);
+      data.writeByte(wrap);
+      data.writeByte(wbits);
+      data.writeBoolean(blocks instanceof InfBlocks64);
+      data.flush();
+
+      // The rest, mostly the window, is deflated, from a buffer, not a
+      // few bytes at a time.
+      DeflaterOutputStream dos =
+        new DeflaterOutputStream(out, deflater, 4096, false);
+      data = new DataOutputStream(new BufferedOutputStream(dos, 8192));
+
+      data.writeByte(mode);
+      data.writeInt(method);
+      data.writeLong(was);
+      data.writeLong(need);
+      data.writeInt(marker);
+      data.writeInt(flags);
+      data.writeInt(need_bytes);
+      writeBytes(data, tmp_string == null ? null : tmp_string.toByteArray());
+
+      data.writeBoolean(gheader != null);
+      if(gheader != null){
+        data.writeLong(gheader.time);
+        data.writeInt(gheader.xflags);
+        data.writeInt(gheader.os);
+        writeBytes(data, gheader.extra);
+        writeBytes(data, gheader.name);
+        writeBytes(data, gheader.comment);
+        data.writeInt(gheader.hcrc);
+        data.writeLong(gheader.crc);
+      }
+
+      data.writeBoolean(z.adler instanceof CRC32);
+      data.writeLong(z.adler.getValue());
+      data.writeLong(z.total_in);
+      data.writeLong(z.total_out);
+      // "incorrect data check" is remembered until the length is checked
+      data.writeBoolean(z.msg != null);
+      if(z.msg != null) data.writeUTF(z.msg);
+
+      // The shared dictionary is given again to inflateResume.
+      data.writeBoolean(blocks.dict != null);
+      if(blocks.dict != null){
+        Adler32 adler = new Adler32();
+        adler.update(blocks.dict, 0, blocks.dict.length);
+        data.writeLong(adler.getValue());
+      }
+
+      blocks.save(data);
+      data.close();
+    }
+    catch(IOException e){
+      // not thrown by a ByteArrayOutputStream
+      return null;
+    }
+    finally{
+      deflater.end();
+    }
+    return out.toByteArray();
+  }
+
+  // Set up this Inflate, which has not been initialized, to continue the
+  // stream saved by inflateCheckpoint. If the stream shares a dictionary,
+  // dict must be that dictionary, or Z_NEED_DICT is returned. Return
+  // Z_DATA_ERROR if checkpoint is not such a byte array, or has been
+  // damaged, and Z_VERSION_ERROR if it was written by an incompatible
+  // version.
+  int inflateResume(byte[] checkpoint, PreparedDictionary dict){
+    DataInputStream data =
+      new DataInputStream(new ByteArrayInputStream(checkpoint));
+    Inflater inflater = new Inflater();
+    int ret;
+    try{
+      if(data.readInt() != CHECKPOINT_MAGIC){
+        z.msg = "not an inflate checkpoint";
+        return Z_DATA_ERROR;
+      }
+      if(data.readByte() != CHECKPOINT_VERSION){
+        z.msg = "unknown checkpoint version";
+        return Z_VERSION_ERROR;
+      }
+      int _wrap = data.readByte();
+      int _wbits = data.readByte();
+      boolean engine64 = data.readBoolean();
+      if(_wrap < 0 || _wrap > 3){
+        z.msg = "invalid checkpoint";
+        return Z_DATA_ERROR;
+      }
+      ret = inflateInit(_wrap == 0 ? -_wbits : ((_wrap-1)<<4) + _wbits,
+                        engine64);
+      if(ret == Z_MEM_ERROR)
+        return ret;
+      if(ret != Z_OK){
+        z.msg = "invalid checkpoint";
+        return Z_DATA_ERROR;
+      }
+
+      data = new DataInputStream(
+        new BufferedInputStream(new InflaterInputStream(data, inflater), 8192));
+
+      mode = data.readByte();
+      method = data.readInt();
+      was = data.readLong();
+      need = data.readLong();
+      marker = data.readInt();
+      flags = data.readInt();
+      need_bytes = data.readInt();
+      byte[] foo = readBytes(data);
+      if(foo != null){
+        tmp_string = new ByteArrayOutputStream();
+        tmp_string.write(foo, 0, foo.length);
+      }
+      if(mode < METHOD || mode > FLAGS || need_bytes < -1 || need_bytes > 4)
+        throw new IOException();
+
+      if(data.readBoolean()){
+        gheader = new GZIPHeader();
+        gheader.time = data.readLong();
+        gheader.xflags = data.readInt();
+        gheader.os = data.readInt();
+        gheader.extra = readBytes(data);
+        gheader.name = readBytes(data);
+        gheader.comment = readBytes(data);
+        gheader.hcrc = data.readInt();
+        gheader.crc = data.readLong();
+      }
+
+      z.adler = data.readBoolean() ? (Checksum)new CRC32()
+                                   : (Checksum)new Adler32();
+      z.adler.reset(data.readLong());
+      z.total_in = data.readLong();
+      z.total_out = data.readLong();
+      z.msg = data.readBoolean() ? data.readUTF() : null;
+
+      boolean shared = data.readBoolean();
+      if(shared && (dict == null || data.readLong() != dict.adler)){
+        inflateEnd();
+        z.msg = "need dictionary";
+        return Z_NEED_DICT;
+      }
+
+      blocks.load(data);
+      if(shared)
+        blocks.share_dictionary(dict.dictionary);
+
+      // The deflated part must end here, with a good adler32.
+      if(data.read(new byte[1]) > 0 || !inflater.finished())
+        throw new IOException();
+    }
+    catch(IOException e){
+      inflateEnd();
+      z.msg = "invalid checkpoint";
+      return Z_DATA_ERROR;
+    }
+    finally{
+      inflater.end();
+    }
+    return Z_OK;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] buf)
+    throws IOException {
+    out.writeInt(buf == null ? -1 : buf.length);
+    if(buf != null && buf.length != 0) out.write(buf, 0, buf.length);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if(n < -1 || n > 0xffff+1)
+      throw new IOException();
+    if(n == -1)
+      return null;
+    byte[] buf = new byte[n];
+    in.readFully(buf, 0, n);
+    return buf;
+  }
+
   static private byte[] mark = {(byte)0, (byte)0, (byte)0xff, (byte)0xff};
 
   int inflateSync(){
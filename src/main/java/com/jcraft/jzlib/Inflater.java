@@ -73,7 +73,23 @@ final public class Inflater extends ZStream{
       throw new GZIPException(ret+": "+msg);
   }
 
+  // The window and the decoding tables are taken from allocator, and
+  // given back to it by end(), or when init() is called again.
+  public Inflater(Allocator allocator) throws GZIPException {
+    this(DEF_WBITS, false, allocator);
+  }
+
+  public Inflater(int w, boolean nowrap, Allocator allocator)
+    throws GZIPException {
+    super();
+    this.allocator = allocator;
+    int ret = init(w, nowrap);
+    if(ret!=Z_OK)
+      throw new GZIPException(ret+": "+msg);
+  }
+
   private boolean finished = false;
+  private boolean engine64 = false;
 
   public int init(){
     return init(DEF_WBITS);
@@ -89,8 +105,18 @@ final public class Inflater extends ZStream{
 
   public int init(int w, boolean nowrap){
     finished = false;
+    if(istate != null) istate.inflateEnd();
     istate=new Inflate(this);
-    return istate.inflateInit(nowrap?-w:w);
+    return istate.inflateInit(nowrap?-w:w, engine64);
+  }
+
+  // Decode the blocks of the streams started by the next init() calls
+  // with the engine after zlib 1.2, which has a 64-bit bit buffer and
+  // packed decoding tables, instead of that after zlib 1.1.3. Both give
+  // the same output; a stream resumed from a checkpoint keeps the engine
+  // it was started with.
+  public void setEngine64(boolean engine64){
+    this.engine64 = engine64;
   }
 
   public int inflate(int f){
@@ -109,6 +135,15 @@ final public class Inflater extends ZStream{
     return ret;
   }
 
+  // Start a new stream with the same parameters, keeping the window and
+  // the other buffers, which init() would allocate again.
+  public int reset(){
+    finished = false;
+    if(istate == null)
+      return Z_STREAM_ERROR;
+    return istate.inflateReset();
+  }
+
   public int sync(){
     if(istate == null)
       return Z_STREAM_ERROR;
@@ -127,7 +162,45 @@ final public class Inflater extends ZStream{
     return istate.inflateSetDictionary(dictionary, dictLength);
   }
 
+  // Back-references before the start of the output are read from the
+  // dictionary, which is shared instead of being copied into the window.
+  public int setDictionary(PreparedDictionary dictionary){
+    if(istate == null || dictionary == null)
+      return Z_STREAM_ERROR;
+    return istate.inflateSetDictionary(dictionary);
+  }
+
+  // Save the stream as a byte array from which resume() continues it, in
+  // this or another Inflater, possibly in another process, for instance
+  // to pick up an interrupted download. The input not consumed so far is
+  // to be given again. null is returned if there is no stream, or after
+  // a data error.
+  public byte[] checkpoint(){
+    if(istate == null)
+      return null;
+    return istate.inflateCheckpoint();
+  }
+
+  // Replace the stream by the one saved in checkpoint, which continues
+  // from its totals and checksum. The input and output buffers are left
+  // as they are. Z_DATA_ERROR is returned if checkpoint is damaged.
+  public int resume(byte[] checkpoint){
+    return resume(checkpoint, null);
+  }
+
+  // As above, for a stream which shares dictionary; Z_NEED_DICT is
+  // returned if it shares another dictionary, or none is given.
+  public int resume(byte[] checkpoint, PreparedDictionary dictionary){
+    finished = false;
+    if(istate != null) istate.inflateEnd();
+    istate = new Inflate(this);
+    int ret = istate.inflateResume(checkpoint, dictionary);
+    if(ret != Z_OK)
+      istate = null;
+    return ret;
+  }
+
   public boolean finished(){
-    return istate.mode==12 /*DONE*/;
+    return istate != null && istate.mode==12 /*DONE*/;
   }
 }
@@ -0,0 +1,131 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded pool of Inflater instances, the counterpart of DeflaterPool.
+ * An Inflater taken from the pool and released again keeps its window and
+ * decoding tables for the next stream.
+ *
+ * Inflaters are pooled by windowBits, which also selects the wrapper as
+ * in Inflater#init: 9..15 for zlib, -9..-15 for raw deflate, 25..31 for
+ * gzip and 41..47 to detect zlib or gzip.  At most <code>capacity</code>
+ * idle instances are kept for each value; further ones are ended.
+ *
+ * The pool may be shared by several threads.  Each Inflater is used by
+ * one thread at a time, between acquire and release.
+ */
+public class InflaterPool {
+
+  static final private int MAX_WBITS=15;
+
+  private final int capacity;
+
+  private final ConcurrentHashMap<Integer, Idle> idle =
+    new ConcurrentHashMap<Integer, Idle>();
+
+  public InflaterPool(int capacity) {
+    if(capacity < 0)
+      throw new IllegalArgumentException("capacity: "+capacity);
+    this.capacity = capacity;
+  }
+
+  public Inflater acquire() throws GZIPException {
+    return acquire(MAX_WBITS);
+  }
+
+  /**
+   * Return an Inflater ready to start a stream with the given windowBits,
+   * an idle one if the pool has it.
+   */
+  public Inflater acquire(int bits) throws GZIPException {
+    Idle i = idle.get(Integer.valueOf(bits));
+    if(i != null){
+      Inflater inflater = i.poll();
+      if(inflater != null){
+        return inflater;
+      }
+    }
+    return new Inflater(bits);
+  }
+
+  /**
+   * Give back an Inflater obtained from acquire, which must not be used
+   * afterwards.  It is reset, unless the pool is full or it was ended, in
+   * which case it is dropped.  Its input and output buffers are not kept.
+   */
+  public void release(Inflater inflater) {
+    Inflate s = inflater.istate;
+    if(s == null || s.blocks == null || s.blocks.window == null ||
+       inflater.reset() != JZlib.Z_OK){
+      inflater.end();
+      return;
+    }
+    s.gheader = null;
+    inflater.free();
+
+    Integer key = Integer.valueOf(s.wrap == 0 ? -s.wbits :
+                                  s.wbits+((s.wrap-1)<<4));
+    Idle i = idle.get(key);
+    if(i == null){
+      Idle foo = idle.putIfAbsent(key, i = new Idle(capacity));
+      if(foo != null)
+        i = foo;
+    }
+    if(!i.offer(inflater))
+      inflater.end();
+  }
+
+  // The idle instances of one key, used last in, first out.
+  private static final class Idle {
+    private final Inflater[] items;
+    private int count = 0;
+
+    Idle(int capacity) {
+      items = new Inflater[capacity];
+    }
+
+    synchronized Inflater poll() {
+      if(count == 0)
+        return null;
+      Inflater inflater = items[--count];
+      items[count] = null;
+      return inflater;
+    }
+
+    synchronized boolean offer(Inflater inflater) {
+      if(count == items.length)
+        return false;
+      items[count++] = inflater;
+      return true;
+    }
+  }
+}
@@ -45,11 +45,16 @@ final public class JZlib{
   static final public int Z_NO_COMPRESSION=0;
   static final public int Z_BEST_SPEED=1;
   static final public int Z_BEST_COMPRESSION=9;
+  // beyond zlib: iterated optimal parsing, for data compressed once and
+  // read many times
+  static final public int Z_OPTIMAL_COMPRESSION=10;
   static final public int Z_DEFAULT_COMPRESSION=(-1);
 
   // compression strategy
   static final public int Z_FILTERED=1;
   static final public int Z_HUFFMAN_ONLY=2;
+  static final public int Z_RLE=3;
+  static final public int Z_FIXED=4;
   static final public int Z_DEFAULT_STRATEGY=0;
 
   static final public int Z_NO_FLUSH=0;
@@ -57,6 +62,7 @@ final public class JZlib{
   static final public int Z_SYNC_FLUSH=2;
   static final public int Z_FULL_FLUSH=3;
   static final public int Z_FINISH=4;
+  static final public int Z_BLOCK=5;
 
   static final public int Z_OK=0;
   static final public int Z_STREAM_END=1;
@@ -68,6 +74,149 @@ final public class JZlib{
   static final public int Z_BUF_ERROR=-5;
   static final public int Z_VERSION_ERROR=-6;
 
+  // Codecs kept by each thread for the one-call helpers below, so that
+  // the window, hash and pending buffers are allocated once per thread
+  // and level rather than once per call.
+  private static final class Codecs {
+    final Deflater[] deflaters = new Deflater[Z_OPTIMAL_COMPRESSION+1];
+    final Deflater[] gzippers = new Deflater[Z_OPTIMAL_COMPRESSION+1];
+    Inflater inflater;
+    Inflater gunzipper;
+  }
+
+  private static final ThreadLocal<Codecs> codecs = new ThreadLocal<Codecs>(){
+    protected Codecs initialValue(){
+      return new Codecs();
+    }
+  };
+
+  // Compress src into a zlib stream.
+  public static byte[] compress(byte[] src) throws GZIPException {
+    return compress(src, 0, src.length, Z_DEFAULT_COMPRESSION);
+  }
+
+  public static byte[] compress(byte[] src, int level) throws GZIPException {
+    return compress(src, 0, src.length, level);
+  }
+
+  public static byte[] compress(byte[] src, int off, int len, int level)
+    throws GZIPException {
+    return deflate(codecs.get().deflaters, DEF_WBITS, src, off, len, level);
+  }
+
+  // Decompress the zlib stream in src.
+  public static byte[] uncompress(byte[] src) throws GZIPException {
+    return uncompress(src, 0, src.length);
+  }
+
+  public static byte[] uncompress(byte[] src, int off, int len)
+    throws GZIPException {
+    Codecs c = codecs.get();
+    if(c.inflater == null)
+      c.inflater = new Inflater(DEF_WBITS);
+    return inflate(c.inflater, src, off, len,
+                   (int)Math.min(len*4L, Integer.MAX_VALUE-8));
+  }
+
+  // Compress src into a single gzip member.
+  public static byte[] gzip(byte[] src) throws GZIPException {
+    return gzip(src, 0, src.length, Z_DEFAULT_COMPRESSION);
+  }
+
+  public static byte[] gzip(byte[] src, int level) throws GZIPException {
+    return gzip(src, 0, src.length, level);
+  }
+
+  public static byte[] gzip(byte[] src, int off, int len, int level)
+    throws GZIPException {
+    return deflate(codecs.get().gzippers, DEF_WBITS+16, src, off, len, level);
+  }
+
+  // Decompress the first gzip member in src.
+  public static byte[] gunzip(byte[] src) throws GZIPException {
+    return gunzip(src, 0, src.length);
+  }
+
+  public static byte[] gunzip(byte[] src, int off, int len)
+    throws GZIPException {
+    Codecs c = codecs.get();
+    if(c.gunzipper == null)
+      c.gunzipper = new Inflater(DEF_WBITS+16);
+
+    // The trailer ends with the uncompressed size modulo 2^32. Trust it
+    // only as far as the maximum deflate ratio allows.
+    int size = (int)Math.min(len*4L, Integer.MAX_VALUE-8);
+    if(len >= 18){
+      int i = off+len-4;
+      long isize = (src[i]&0xff) | ((src[i+1]&0xff)<<8) |
+        ((src[i+2]&0xff)<<16) | ((long)(src[i+3]&0xff)<<24);
+      size = (int)Math.min(isize, Math.min(len*1032L, Integer.MAX_VALUE-8));
+    }
+    return inflate(c.gunzipper, src, off, len, size);
+  }
+
+  private static byte[] deflate(Deflater[] cache, int bits,
+                                byte[] src, int off, int len, int level)
+    throws GZIPException {
+    if(level == Z_DEFAULT_COMPRESSION)
+      level = 6;
+    if(level < Z_NO_COMPRESSION || level > Z_OPTIMAL_COMPRESSION)
+      throw new IllegalArgumentException("level: "+level);
+
+    Deflater deflater = cache[level];
+    if(deflater == null)
+      deflater = cache[level] = new Deflater(level, bits);
+
+    long bound = deflater.deflateBound(len);
+    if(bound > Integer.MAX_VALUE-8)
+      throw new GZIPException("input too large: "+len);
+    byte[] buf = new byte[(int)bound];
+    int n = deflater.compress(src, off, len, buf, 0);
+    if(n < 0)
+      throw new GZIPException(n+": "+deflater.msg);
+    if(n == buf.length)
+      return buf;
+    byte[] out = new byte[n];
+    System.arraycopy(buf, 0, out, 0, n);
+    return out;
+  }
+
+  private static byte[] inflate(Inflater inflater,
+                                byte[] src, int off, int len, int size)
+    throws GZIPException {
+    inflater.reset();
+    byte[] buf = new byte[Math.max(size, 64)];
+    inflater.setInput(src, off, len, false);
+    inflater.setOutput(buf);
+
+    while(true){
+      int err = inflater.inflate(Z_NO_FLUSH);
+      if(err == Z_STREAM_END)
+        break;
+      if(inflater.avail_out == 0){
+        if(buf.length >= Integer.MAX_VALUE-8)
+          throw new GZIPException("output too large");
+        byte[] tmp = new byte[(int)Math.min(buf.length*2L, Integer.MAX_VALUE-8)];
+        System.arraycopy(buf, 0, tmp, 0, buf.length);
+        inflater.setOutput(tmp, buf.length, tmp.length-buf.length);
+        buf = tmp;
+        continue;
+      }
+      if(err == Z_OK)
+        continue;
+      if(err == Z_BUF_ERROR)
+        throw new GZIPException("unexpected end of input");
+      throw new GZIPException(err+": "+inflater.msg);
+    }
+
+    int n = (int)inflater.total_out;
+    if(n == buf.length)
+      return buf;
+    byte[] out = new byte[n];
+    System.arraycopy(buf, 0, out, 0, n);
+    return out;
+  }
+
   public static long adler32_combine(long adler1, long adler2, long len2){
     return Adler32.combine(adler1, adler2, len2);
   }
@@ -0,0 +1,425 @@
+/* -*-mode:java; c-basic-offset:2; -*- */
+/*
+Copyright (c) 2000,2001,2002,2003 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/*
+ * This program is based on zlib-1.1.3, so all credit should go authors
+ * Jean-loup Gailly(jloup@gzip.org) and Mark Adler(madler@alumni.caltech.edu)
+ * and contributors of zlib.
+ */
+
+package com.jcraft.jzlib;
+
+import java.nio.ByteBuffer;
+
+// The parser of deflate_optimal. A chunk of the window is parsed by
+// collecting, for every position, the matches that are longer than all
+// closer ones, and then finding the cheapest path through them with the
+// symbol costs of a model. The model starts from the fixed codes and is
+// then rebuilt from the symbol statistics of the previous path, keeping
+// the cheapest path found. The symbols of that path are finally split
+// into blocks wherever separate Huffman codes pay for their headers.
+final class Optimal{
+  static final private int MIN_MATCH=3;
+  static final private int MAX_MATCH=258;
+  static final private int MIN_LOOKAHEAD=(MAX_MATCH+MIN_MATCH+1);
+  static final private int LITERALS=256;
+  static final private int LENGTH_CODES=29;
+  static final private int L_CODES=(LITERALS+1+LENGTH_CODES);
+  static final private int D_CODES=30;
+  static final private int END_BLOCK=256;
+
+  // number of shortest path searches over a chunk
+  static final private int ITERATIONS=15;
+
+  // blocks of fewer symbols are not split any further
+  static final private int MIN_SPLIT=512;
+
+  // number of parts a block is cut into when looking for a split point
+  static final private int SPLIT_TRIES=16;
+
+  // The matches found for the chunk: those of its position i are the
+  // entries first[i] to first[i+1]-1 of mlength and mdist, by increasing
+  // length and distance.
+  int[] first;
+  int[] mlength;
+  int[] mdist;
+
+  // cost of the cheapest path to each position of the chunk and the
+  // length and distance of its last step (length 1 for a literal)
+  float[] cost;
+  int[] step_len;
+  int[] step_dist;
+
+  // symbol costs in bits, of the literal/length codes including the extra
+  // bits of each match length, and of the distance codes
+  float[] lit_cost=new float[L_CODES];
+  float[] len_cost=new float[MAX_MATCH+1];
+  float[] dist_cost=new float[D_CODES];
+
+  // symbol frequencies of a path
+  int[] lit_freq=new int[L_CODES];
+  int[] dist_freq=new int[D_CODES];
+  int extra_bits;
+
+  // The symbols of the chunk, each (distance<<8)|(length-MIN_MATCH) for a
+  // match or the literal byte, and the symbol indices where a new block
+  // starts.
+  int[] syms;
+  int nsyms;
+  int[] path;
+  int[] bounds;
+  int nbounds;
+
+  // the next symbol and block bound to be sent
+  int next;
+  int next_bound;
+
+  Optimal(){
+    syms=new int[1024];
+    path=new int[1024];
+    bounds=new int[16];
+  }
+
+  void reset(){
+    nsyms=next=0;
+    nbounds=next_bound=0;
+  }
+
+  // Parse the len bytes of the window from start, end being the end of the
+  // input in the window, and insert them into the hash chains of s.
+  void parse(Deflate s, int start, int len, int end){
+    byte[] w=s.window;
+    float best=Float.MAX_VALUE;
+    int n;
+
+    find_matches(s, start, len, end);
+    if(cost==null || cost.length<len+1){
+      cost=new float[len+1];
+      step_len=new int[len+1];
+      step_dist=new int[len+1];
+    }
+
+    fixed_costs();
+    for(int i=0; i<ITERATIONS; i++){
+      shortest_path(w, start, len);
+      n=trace(w, start, len);
+      count(path, 0, n);
+      float bits=data_bits();
+      if(bits<best){
+	best=bits;
+	if(syms.length<n) syms=new int[path.length];
+	System.arraycopy(path, 0, syms, 0, n);
+	nsyms=n;
+      }
+      else if(bits==best){
+	break;   // the model will not change any more
+      }
+      model_costs();
+    }
+
+    next=0;
+    nbounds=next_bound=0;
+    split(0, nsyms);
+  }
+
+  // The symbol index where the next block starts, or -1.
+  int bound(){
+    return next_bound<nbounds ? bounds[next_bound] : -1;
+  }
+
+  // Insert the positions of the chunk into the hash chains and collect
+  // their matches. A match is kept only if it is longer than all closer
+  // ones, since a closer match of the same length is never more expensive.
+  private void find_matches(Deflate s, int start, int len, int end){
+    byte[] w=s.window;
+    ByteBuffer wb=s.window_buf;
+    int[] prev32=s.prev32;
+    short[] prev=s.prev;
+    int wmask=s.w_mask;
+    int base=s.pos_base;
+    int max_dist=s.w_size-MIN_LOOKAHEAD;
+    int n=0;
+
+    if(first==null || first.length<len+1){
+      first=new int[len+1];
+    }
+    if(mlength==null){
+      mlength=new int[len*4];
+      mdist=new int[len*4];
+    }
+
+    for(int i=0; i<len; i++){
+      int pos=start+i;
+      first[i]=n;
+      if(pos+MIN_MATCH>end) continue;
+
+      s.ins_h=(((s.ins_h)<<s.hash_shift)^(w[pos+MIN_MATCH-1]&0xff))&s.hash_mask;
+      int cur_match=s.insert_string(s.ins_h, pos);
+
+      // Matches may not run past the chunk.
+      int max=len-i;
+      if(max>MAX_MATCH) max=MAX_MATCH;
+      if(max<MIN_MATCH) continue;
+      int nice=s.nice_match<max ? s.nice_match : max;
+
+      int limit=pos>max_dist ? pos-max_dist : 0;
+      if(cur_match>=pos) cur_match=0;  // match_len needs cur_match < pos
+      int chain=s.max_chain_length;
+      int best_len=MIN_MATCH-1;
+      short scan_start=wb.getShort(pos);
+      short scan_end=wb.getShort(pos+best_len-1);
+      while(cur_match>limit){
+	if(wb.getShort(cur_match+best_len-1)==scan_end &&
+	   wb.getShort(cur_match)==scan_start){
+	  int l=s.match_len(pos, cur_match, max);
+	  if(l>best_len){
+	    if(n==mlength.length){
+	      mlength=grow(mlength);
+	      mdist=grow(mdist);
+	    }
+	    mlength[n]=l;
+	    mdist[n]=pos-cur_match;
+	    n++;
+	    best_len=l;
+	    if(l>=nice) break;
+	    scan_end=wb.getShort(pos+best_len-1);
+	  }
+	}
+	if(--chain==0) break;
+	cur_match=prev32!=null ? prev32[cur_match&wmask]-base :
+	  prev[cur_match&wmask]&0xffff;
+      }
+    }
+    first[len]=n;
+  }
+
+  // Find the cheapest path through the chunk under the current costs.
+  private void shortest_path(byte[] w, int start, int len){
+    float[] cost=this.cost;
+    int[] step_len=this.step_len;
+    int[] step_dist=this.step_dist;
+    int[] first=this.first;
+    int[] mlength=this.mlength;
+    int[] mdist=this.mdist;
+    float[] lit_cost=this.lit_cost;
+    float[] len_cost=this.len_cost;
+
+    cost[0]=0;
+    for(int i=1; i<=len; i++) cost[i]=Float.MAX_VALUE;
+
+    for(int i=0; i<len; i++){
+      float c=cost[i];
+      float lc=c+lit_cost[w[start+i]&0xff];
+      if(lc<cost[i+1]){
+	cost[i+1]=lc;
+	step_len[i+1]=1;
+      }
+
+      // Every length up to that of a match can be reached at its distance.
+      int l=MIN_MATCH;
+      for(int k=first[i]; k<first[i+1]; k++){
+	int d=mdist[k];
+	float dc=c+dist_cost[Tree.d_code(d-1)];
+	for(int max=mlength[k]; l<=max; l++){
+	  float mc=dc+len_cost[l];
+	  if(mc<cost[i+l]){
+	    cost[i+l]=mc;
+	    step_len[i+l]=l;
+	    step_dist[i+l]=d;
+	  }
+	}
+      }
+    }
+  }
+
+  // Walk the path found by shortest_path back from the end of the chunk
+  // and store its symbols in path, returning their number.
+  private int trace(byte[] w, int start, int len){
+    int n=0;
+    for(int j=len; j>0; j-=step_len[j]) n++;
+    if(path.length<n) path=new int[n+(n>>>2)];
+
+    int k=n;
+    for(int j=len; j>0; ){
+      int l=step_len[j];
+      if(l==1){
+	path[--k]=w[start+j-1]&0xff;
+      }
+      else{
+	path[--k]=(step_dist[j]<<8)|(l-MIN_MATCH);
+      }
+      j-=l;
+    }
+    return n;
+  }
+
+  // Count the symbols syms[from] to syms[to-1].
+  private void count(int[] syms, int from, int to){
+    int[] lit_freq=this.lit_freq;
+    int[] dist_freq=this.dist_freq;
+    int extra=0;
+
+    for(int i=0; i<L_CODES; i++) lit_freq[i]=0;
+    for(int i=0; i<D_CODES; i++) dist_freq[i]=0;
+    for(int i=from; i<to; i++){
+      int sym=syms[i];
+      int dist=sym>>>8;
+      if(dist==0){
+	lit_freq[sym]++;
+      }
+      else{
+	int code=Tree._length_code[sym&0xff];
+	lit_freq[code+LITERALS+1]++;
+	extra+=Tree.extra_lbits[code];
+	code=Tree.d_code(dist-1);
+	dist_freq[code]++;
+	extra+=Tree.extra_dbits[code];
+      }
+    }
+    lit_freq[END_BLOCK]=1;
+    extra_bits=extra;
+  }
+
+  // The size in bits of the symbols counted by count, if each were coded
+  // with its entropy.
+  private float data_bits(){
+    return entropy(lit_freq, L_CODES)+entropy(dist_freq, D_CODES)+
+      extra_bits;
+  }
+
+  private static float entropy(int[] freq, int n){
+    long total=0;
+    for(int i=0; i<n; i++) total+=freq[i];
+    if(total==0) return 0;
+    double log_total=log2(total);
+    double bits=0;
+    for(int i=0; i<n; i++){
+      if(freq[i]!=0) bits+=freq[i]*(log_total-log2(freq[i]));
+    }
+    return (float)bits;
+  }
+
+  // The estimated size in bits of a dynamic block holding the symbols
+  // syms[from] to syms[to-1]. The header is taken to cost the 17 bits
+  // of the block type and code counts, 3 bits per code length code, and
+  // 4 bits per code used.
+  private float block_bits(int from, int to){
+    count(syms, from, to);
+    int used=0;
+    for(int i=0; i<L_CODES; i++) if(lit_freq[i]!=0) used++;
+    for(int i=0; i<D_CODES; i++) if(dist_freq[i]!=0) used++;
+    return 17+3*19+4*used+data_bits();
+  }
+
+  // Split the symbols from to to-1 into blocks, adding the bounds in
+  // increasing order. A block is split at the point, among SPLIT_TRIES-1
+  // evenly spaced ones, that makes its two halves the cheapest, if the
+  // halves are cheaper than the whole.
+  private void split(int from, int to){
+    if(to-from<2*MIN_SPLIT) return;
+
+    float best=block_bits(from, to);
+    int best_k=-1;
+    for(int t=1; t<SPLIT_TRIES; t++){
+      int k=from+(int)((long)(to-from)*t/SPLIT_TRIES);
+      if(k-from<MIN_SPLIT || to-k<MIN_SPLIT) continue;
+      float bits=block_bits(from, k)+block_bits(k, to);
+      if(bits<best){
+	best=bits;
+	best_k=k;
+      }
+    }
+    if(best_k<0) return;
+
+    split(from, best_k);
+    if(nbounds==bounds.length) bounds=grow(bounds);
+    bounds[nbounds++]=best_k;
+    split(best_k, to);
+  }
+
+  // The costs of the fixed codes, used for the first path.
+  private void fixed_costs(){
+    for(int i=0; i<L_CODES; i++){
+      lit_cost[i]=i<144 ? 8 : i<256 ? 9 : i<280 ? 7 : 8;
+    }
+    for(int i=0; i<D_CODES; i++){
+      dist_cost[i]=5+Tree.extra_dbits[i];
+    }
+    length_costs();
+  }
+
+  // Costs taken from the symbol frequencies counted last. A symbol that
+  // was not used costs as much as one used once.
+  private void model_costs(){
+    model_costs(lit_freq, lit_cost, L_CODES);
+    model_costs(dist_freq, dist_cost, D_CODES);
+    for(int i=0; i<D_CODES; i++){
+      dist_cost[i]+=Tree.extra_dbits[i];
+    }
+    length_costs();
+  }
+
+  private static void model_costs(int[] freq, float[] cost, int n){
+    long total=0;
+    for(int i=0; i<n; i++) total+=freq[i];
+    double log_total=log2(total>0 ? total : 1);
+    for(int i=0; i<n; i++){
+      cost[i]=(float)(freq[i]!=0 ? log_total-log2(freq[i]) : log_total);
+    }
+  }
+
+  private void length_costs(){
+    for(int l=MIN_MATCH; l<=MAX_MATCH; l++){
+      int code=Tree._length_code[l-MIN_MATCH];
+      len_cost[l]=lit_cost[code+LITERALS+1]+Tree.extra_lbits[code];
+    }
+  }
+
+  private static double log2(double x){
+    return Math.log(x)*1.4426950408889634;
+  }
+
+  private static int[] grow(int[] buf){
+    int[] foo=new int[buf.length*2];
+    System.arraycopy(buf, 0, foo, 0, buf.length);
+    return foo;
+  }
+
+  // A copy holding the symbols still to be sent; the scratch arrays are
+  // allocated again by the next parse.
+  Optimal copy(){
+    Optimal dest=new Optimal();
+    dest.syms=syms.clone();
+    dest.bounds=bounds.clone();
+    dest.nsyms=nsyms;
+    dest.nbounds=nbounds;
+    dest.next=next;
+    dest.next_bound=next_bound;
+    return dest;
+  }
+}
@@ -0,0 +1,395 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+import java.io.*;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+
+/**
+ * A zlib (RFC1950) writer, which compresses its input on several threads.
+ *
+ * The input is cut into fixed-size blocks, and each block is deflated by
+ * its own Deflater, primed with the last 32K of the preceding input as
+ * a preset dictionary.  Every block except the last ends with a
+ * Z_SYNC_FLUSH, so the compressed blocks can be simply concatenated, and
+ * the check value of the whole input is built with Adler32#combine.
+ * The output is a single, standard stream, and it depends only on the
+ * input, the compression level, the block size and the points where a
+ * sync flush is requested; it does not depend on the number of threads.
+ */
+public class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+  protected static final int DEFAULT_BLOCKSIZE = 128*1024;
+
+  static final private int DICT_SIZE = 32*1024;
+
+  protected final int level;
+
+  private final int blockSize;
+
+  private final ExecutorService executor;
+
+  protected boolean myexecutor = false;
+
+  // Blocks which have been submitted, but not written yet, in input order.
+  private final LinkedList<Future<Block>> queue =
+    new LinkedList<Future<Block>>();
+
+  private final int maxQueued;
+
+  private byte[] block;
+
+  private int blockLen = 0;
+
+  // The last 32K of the input, which precedes the current block.
+  private byte[] dictionary = new byte[0];
+
+  boolean headerWritten = false;
+
+  private long check;
+
+  private long totalIn = 0L;
+
+  private long totalOut = 0L;
+
+  boolean finished = false;
+
+  private boolean closed = false;
+
+  private boolean syncFlush = false;
+
+  private boolean close_out = true;
+
+  private final byte[] buf1 = new byte[1];
+
+  public ParallelDeflaterOutputStream(OutputStream out) throws IOException {
+    this(out, JZlib.Z_DEFAULT_COMPRESSION);
+  }
+
+  public ParallelDeflaterOutputStream(OutputStream out, int level) throws IOException {
+    this(out, level, DEFAULT_BLOCKSIZE,
+         Runtime.getRuntime().availableProcessors());
+  }
+
+  public ParallelDeflaterOutputStream(OutputStream out,
+                                      int level,
+                                      int blockSize,
+                                      int threads) throws IOException {
+    this(out, level, blockSize, newExecutor(threads), threads, true);
+    myexecutor = true;
+  }
+
+  public ParallelDeflaterOutputStream(OutputStream out,
+                                      int level,
+                                      int blockSize,
+                                      ExecutorService executor,
+                                      int threads,
+                                      boolean close_out) throws IOException {
+    super(out);
+    if (out == null || executor == null) {
+      throw new NullPointerException();
+    }
+    else if (blockSize <= 0) {
+      throw new IllegalArgumentException("block size must be greater than 0");
+    }
+    else if (threads <= 0) {
+      throw new IllegalArgumentException("threads must be greater than 0");
+    }
+    // fail early on an invalid level, instead of in a worker.
+    new Deflater(level, JZlib.MAX_WBITS, true).end();
+
+    this.level = level;
+    this.blockSize = blockSize;
+    this.executor = executor;
+    this.maxQueued = threads*2;
+    this.close_out = close_out;
+    block = new byte[blockSize];
+  }
+
+  private static ExecutorService newExecutor(int threads){
+    if (threads <= 0) {
+      throw new IllegalArgumentException("threads must be greater than 0");
+    }
+    return Executors.newFixedThreadPool(threads, new ThreadFactory(){
+        public Thread newThread(Runnable r){
+          Thread t = new Thread(r, "jzlib-parallel-deflate");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+  }
+
+  public void write(int b) throws IOException {
+    buf1[0] = (byte)(b & 0xff);
+    write(buf1, 0, 1);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (finished) {
+      throw new IOException("finished");
+    }
+    else if (off<0 | len<0 | off+len>b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    while (len > 0) {
+      int n = Math.min(len, blockSize - blockLen);
+      System.arraycopy(b, off, block, blockLen, n);
+      blockLen += n;
+      off += n;
+      len -= n;
+      if (blockLen == blockSize) {
+        submit(false);
+      }
+    }
+  }
+
+  public void finish() throws IOException {
+    if (finished)
+      return;
+    submit(true);
+    while (!queue.isEmpty()) {
+      writeBlock(queue.removeFirst());
+    }
+
+    byte[] trailer = getTrailer(check, totalIn);
+    out.write(trailer);
+    totalOut += trailer.length;
+    finished = true;
+  }
+
+  public void close() throws IOException {
+    if (!closed) {
+      try {
+        finish();
+      }
+      finally {
+        if (myexecutor) {
+          executor.shutdown();
+        }
+        if (close_out)
+          out.close();
+        closed = true;
+      }
+    }
+  }
+
+  // As with DeflaterOutputStream, only a sync flush forces out the
+  // buffered input.  Compressed blocks always end at a byte boundary after
+  // a sync flush, so it just cuts the current block short and waits for
+  // the workers.  Otherwise, only the blocks already done are written.
+  public void flush() throws IOException {
+    if (!finished) {
+      if (syncFlush) {
+        if (blockLen > 0) {
+          submit(false);
+        }
+        while (!queue.isEmpty()) {
+          writeBlock(queue.removeFirst());
+        }
+      }
+      else {
+        while (!queue.isEmpty() && queue.getFirst().isDone()) {
+          writeBlock(queue.removeFirst());
+        }
+      }
+    }
+    out.flush();
+  }
+
+  private void submit(boolean last) throws IOException {
+    byte[] dict = dictionary;
+    dictionary = nextDictionary(dict, block, blockLen);
+    queue.add(executor.submit(new Compressor(block, blockLen, dict,
+                                             level, last, newChecksum())));
+    totalIn += blockLen;
+    if (!last) {
+      block = new byte[blockSize];
+    }
+    blockLen = 0;
+
+    // Keep the number of blocks in memory bounded, and write out
+    // whatever is ready without blocking.
+    while (queue.size() > maxQueued ||
+           (!queue.isEmpty() && queue.getFirst().isDone())) {
+      writeBlock(queue.removeFirst());
+    }
+  }
+
+  private void writeBlock(Future<Block> f) throws IOException {
+    Block b;
+    try {
+      b = f.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while deflating");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException)cause;
+      IOException ioe = new IOException("failed to deflate");
+      ioe.initCause(cause);
+      throw ioe;
+    }
+
+    if (!headerWritten) {
+      byte[] header = getHeader();
+      out.write(header);
+      totalOut += header.length;
+      check = newChecksum().getValue();
+      headerWritten = true;
+    }
+    out.write(b.out, 0, b.len);
+    totalOut += b.len;
+    check = combine(check, b.check, b.inLen);
+  }
+
+  private static byte[] nextDictionary(byte[] dict, byte[] data, int len) {
+    byte[] next;
+    if (len >= DICT_SIZE) {
+      next = new byte[DICT_SIZE];
+      System.arraycopy(data, len-DICT_SIZE, next, 0, DICT_SIZE);
+    }
+    else {
+      int keep = Math.min(dict.length, DICT_SIZE-len);
+      next = new byte[keep+len];
+      System.arraycopy(dict, dict.length-keep, next, 0, keep);
+      System.arraycopy(data, 0, next, keep, len);
+    }
+    return next;
+  }
+
+  // The zlib header, as Deflate writes it for a 32K window without
+  // a preset dictionary.
+  byte[] getHeader(){
+    int header = (8/*Z_DEFLATED*/+((JZlib.MAX_WBITS-8)<<4))<<8;
+    int l = level == JZlib.Z_DEFAULT_COMPRESSION ? 6 : level;
+    int level_flags=((l-1)&0xff)>>1;
+    if(level_flags>3) level_flags=3;
+    header |= (level_flags<<6);
+    header+=31-(header % 31);
+    return new byte[]{(byte)(header>>8), (byte)header};
+  }
+
+  // The adler32 of the whole input, in network byte order.
+  byte[] getTrailer(long check, long totalIn){
+    return new byte[]{(byte)(check>>24), (byte)(check>>16),
+                      (byte)(check>>8), (byte)check};
+  }
+
+  Checksum newChecksum(){
+    return new Adler32();
+  }
+
+  long combine(long check1, long check2, long len2){
+    return Adler32.combine(check1, check2, len2);
+  }
+
+  static class Block {
+    byte[] out;   // compressed data
+    int len;      // length of compressed data
+    int inLen;    // length of uncompressed data
+    long check;   // check value of uncompressed data
+  }
+
+  static class Compressor implements Callable<Block> {
+    private final byte[] data;
+    private final int len;
+    private final byte[] dict;
+    private final int level;
+    private final boolean last;
+    private final Checksum checksum;
+
+    Compressor(byte[] data, int len, byte[] dict,
+               int level, boolean last, Checksum checksum){
+      this.data = data;
+      this.len = len;
+      this.dict = dict;
+      this.level = level;
+      this.last = last;
+      this.checksum = checksum;
+    }
+
+    public Block call() throws IOException {
+      Deflater deflater = new Deflater(level, JZlib.MAX_WBITS, true);
+      if (dict.length > 0) {
+        deflater.setDictionary(dict, dict.length);
+      }
+      deflater.setInput(data, 0, len, false);
+
+      int flush = last ? JZlib.Z_FINISH : JZlib.Z_SYNC_FLUSH;
+      byte[] buf = new byte[len + (len>>>3) + 64];
+      int n = 0;
+      while (true) {
+        if (n == buf.length) {
+          byte[] tmp = new byte[buf.length*2];
+          System.arraycopy(buf, 0, tmp, 0, n);
+          buf = tmp;
+        }
+        deflater.setOutput(buf, n, buf.length-n);
+        int err = deflater.deflate(flush);
+        n = deflater.next_out_index;
+        if (err == JZlib.Z_STREAM_END)
+          break;
+        if (err != JZlib.Z_OK && err != JZlib.Z_BUF_ERROR)
+          throw new GZIPException(err+": "+deflater.msg);
+        if (!last && deflater.avail_in == 0 && deflater.avail_out > 0)
+          break;
+      }
+      deflater.end();
+
+      checksum.update(data, 0, len);
+
+      Block b = new Block();
+      b.out = buf;
+      b.len = n;
+      b.inLen = len;
+      b.check = checksum.getValue();
+      return b;
+    }
+  }
+
+  public long getTotalIn() {
+    return totalIn + blockLen;
+  }
+
+  public long getTotalOut() {
+    return totalOut;
+  }
+
+  public void setSyncFlush(boolean syncFlush){
+    this.syncFlush = syncFlush;
+  }
+
+  public boolean getSyncFlush(){
+    return this.syncFlush;
+  }
+}
@@ -0,0 +1,121 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A gzip writer, which compresses its input on several threads.
+ *
+ * See ParallelDeflaterOutputStream; the check value of the whole input is
+ * built with CRC32#combine, and the output is a single gzip member.
+ */
+public class ParallelGZIPOutputStream extends ParallelDeflaterOutputStream {
+
+  private final GZIPHeader gheader = new GZIPHeader();
+
+  public ParallelGZIPOutputStream(OutputStream out) throws IOException {
+    this(out, JZlib.Z_DEFAULT_COMPRESSION);
+  }
+
+  public ParallelGZIPOutputStream(OutputStream out, int level) throws IOException {
+    super(out, level);
+  }
+
+  public ParallelGZIPOutputStream(OutputStream out,
+                                  int level,
+                                  int blockSize,
+                                  int threads) throws IOException {
+    super(out, level, blockSize, threads);
+  }
+
+  public ParallelGZIPOutputStream(OutputStream out,
+                                  int level,
+                                  int blockSize,
+                                  ExecutorService executor,
+                                  int threads,
+                                  boolean close_out) throws IOException {
+    super(out, level, blockSize, executor, threads, close_out);
+  }
+
+  byte[] getHeader(){
+    return gheader.getBytes(level);
+  }
+
+  // CRC32 and ISIZE, in little endian.
+  byte[] getTrailer(long check, long totalIn){
+    gheader.setCRC(check);
+    byte[] trailer = new byte[8];
+    for (int i = 0; i < 4; i++) {
+      trailer[i] = (byte)(check >> (i*8));
+      trailer[4+i] = (byte)(totalIn >> (i*8));
+    }
+    return trailer;
+  }
+
+  Checksum newChecksum(){
+    return new CRC32();
+  }
+
+  long combine(long check1, long check2, long len2){
+    return CRC32.combine(check1, check2, len2);
+  }
+
+  private void check() throws GZIPException {
+    if (headerWritten)
+      throw new GZIPException("header is already written.");
+  }
+
+  public void setModifiedTime(long mtime) throws GZIPException {
+    check();
+    gheader.setModifiedTime(mtime);
+  }
+
+  public void setOS(int os) throws GZIPException {
+    check();
+    gheader.setOS(os);
+  }
+
+  public void setName(String name) throws GZIPException {
+    check();
+    gheader.setName(name);
+  }
+
+  public void setComment(String comment) throws GZIPException {
+    check();
+    gheader.setComment(comment);
+  }
+
+  public long getCRC() throws GZIPException {
+    if (!finished)
+      throw new GZIPException("checksum is not calculated yet.");
+    return gheader.getCRC();
+  }
+}
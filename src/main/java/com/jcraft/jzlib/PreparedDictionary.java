@@ -0,0 +1,139 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+/**
+ * A preset dictionary for deflate, hashed once so that it can be given to
+ * any number of streams.  Deflater#setDictionary(PreparedDictionary)
+ * copies the window and hash chains built here into the stream, instead
+ * of inserting every string of the dictionary again; the compressed
+ * output is the same as with Deflater#setDictionary(byte[], int).
+ *
+ * The hash chains depend on windowBits and memLevel, so the dictionary is
+ * prepared for one combination of them.  A stream with other values
+ * falls back to inserting the dictionary as usual.
+ *
+ * An Inflater may be given the same dictionary with
+ * Inflater#setDictionary(PreparedDictionary), which reads the
+ * back-references before the start of its output from the dictionary
+ * itself, rather than from a copy of it in its window.
+ *
+ * A PreparedDictionary is immutable, and may be shared by several threads.
+ */
+public final class PreparedDictionary {
+
+  static final private int MAX_WBITS=15;
+  static final private int DEF_MEM_LEVEL=8;
+
+  final byte[] dictionary; // the whole dictionary
+  final long adler;        // its Adler-32, the dictionary id of zlib streams
+  final int w_bits;
+  final int hash_bits;
+
+  final int length;        // bytes at the start of the window
+  final int[] slots;       // the hash chains, which are not empty
+  final int[] heads;       // and their heads
+  final int[] prev32;      // prev32 or prev, for the first length bytes
+  final short[] prev;
+
+  public PreparedDictionary(byte[] dictionary) throws GZIPException {
+    this(dictionary, dictionary.length, MAX_WBITS, DEF_MEM_LEVEL);
+  }
+
+  /**
+   * Prepare the first dictLength bytes of dictionary for streams with the
+   * given windowBits and memLevel.  The sign of windowBits and the gzip
+   * offset of 16, which select the wrapper in Deflater#init, are ignored.
+   */
+  public PreparedDictionary(byte[] dictionary, int dictLength,
+                            int windowBits, int memLevel)
+    throws GZIPException {
+    if(windowBits < 0)
+      windowBits = -windowBits;
+    else if(windowBits > 15)
+      windowBits -= 16;
+
+    this.dictionary = new byte[dictLength];
+    System.arraycopy(dictionary, 0, this.dictionary, 0, dictLength);
+
+    Adler32 a = new Adler32();
+    a.update(this.dictionary, 0, dictLength);
+    adler = a.getValue();
+
+    // Let a raw stream hash the dictionary, and keep what it built.
+    Deflater d = new Deflater(JZlib.Z_DEFAULT_COMPRESSION,
+                              -windowBits, memLevel);
+    Deflate s = d.dstate;
+    s.deflateSetDictionary(this.dictionary, dictLength);
+
+    w_bits = s.w_bits;
+    hash_bits = s.hash_bits;
+    length = s.strstart;
+
+    int n = 0;
+    for(int h = 0; h < s.hash_size; h++){
+      if(s.head32 != null ? s.head32[h] != 0 : s.head[h] != 0) n++;
+    }
+    slots = new int[n];
+    heads = new int[n];
+    n = 0;
+    for(int h = 0; h < s.hash_size; h++){
+      int head = s.head32 != null ? s.head32[h] : s.head[h];
+      if(head != 0){
+        slots[n] = h;
+        heads[n++] = head;
+      }
+    }
+
+    if(s.head32 != null){
+      prev32 = new int[length];
+      System.arraycopy(s.prev32, 0, prev32, 0, length);
+      prev = null;
+    }
+    else{
+      prev = new short[length];
+      System.arraycopy(s.prev, 0, prev, 0, length);
+      prev32 = null;
+    }
+    d.end();
+  }
+
+  /**
+   * Return the Adler-32 checksum of the dictionary, which a zlib stream
+   * carries as the dictionary id.
+   */
+  public long getAdler(){
+    return adler;
+  }
+
+  public int getLength(){
+    return dictionary.length;
+  }
+}
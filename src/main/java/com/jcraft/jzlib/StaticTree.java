@@ -116,6 +116,15 @@ final class StaticTree{
     19, 5, 11, 5, 27, 5,  7, 5, 23, 5
   };
 
+  // static_ltree and static_dtree packed by Tree.gen_enc
+  static final int[] static_lit_enc = new int[LITERALS+1];
+  static final int[] static_len_enc = new int[256];
+  static final int[] static_dist_enc = new int[D_CODES];
+  static{
+    Tree.gen_enc(static_ltree, static_dtree,
+		 static_lit_enc, static_len_enc, static_dist_enc);
+  }
+
   static StaticTree static_l_desc =
     new StaticTree(static_ltree, Tree.extra_lbits,
 		   LITERALS+1, L_CODES, MAX_BITS);
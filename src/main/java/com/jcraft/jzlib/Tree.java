@@ -149,6 +149,37 @@ final class Tree{
     return ((dist) < 256 ? _dist_code[dist] : _dist_code[256+((dist)>>>7)]);
   }
 
+  // Pack the codes of the literal/length tree ltree and the distance tree
+  // dtree for compress_block, so that a symbol is sent from one entry.
+  // lit_enc holds, for each literal and END_BLOCK, the code in the low 24
+  // bits and its bit length in the high 8 bits. len_enc holds the same for
+  // each match length - MIN_MATCH, with the extra bits appended to the
+  // length code. dist_enc holds, for each distance code, the code in the
+  // low 16 bits, its bit length in bits 16-23, and that length plus the
+  // number of extra bits in the high 8 bits.
+  static void gen_enc(short[] ltree, short[] dtree,
+		      int[] lit_enc, int[] len_enc, int[] dist_enc){
+    int n, code, len, extra;
+
+    for(n = 0; n <= END_BLOCK; n++){
+      lit_enc[n] = (ltree[n*2+1]<<24) | (ltree[n*2]&0xffff);
+    }
+    for(n = 0; n < len_enc.length; n++){
+      code = _length_code[n]+LITERALS+1;
+      len = ltree[code*2+1];
+      extra = extra_lbits[code-LITERALS-1];
+      // The length 258 has no extra bits, but is not base_length[28] either.
+      len_enc[n] = ((len+extra)<<24) |
+	(extra != 0 ? (n-base_length[code-LITERALS-1])<<len : 0) |
+	(ltree[code*2]&0xffff);
+    }
+    for(n = 0; n < D_CODES; n++){
+      len = dtree[n*2+1];
+      dist_enc[n] = ((len+extra_dbits[n])<<24) | (len<<16) |
+	(dtree[n*2]&0xffff);
+    }
+  }
+
   short[] dyn_tree;      // the dynamic tree
   int     max_code;      // largest code with non zero frequency
   StaticTree stat_desc;  // the corresponding static tree
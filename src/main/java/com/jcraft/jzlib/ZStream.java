@@ -82,6 +82,8 @@ public class ZStream{
 
   Checksum adler;
 
+  Allocator allocator; // supplies the buffers of dstate and istate, if set
+
   public ZStream(){
     this(new Adler32());
   }
@@ -178,6 +180,7 @@ public class ZStream{
   // to avoid allocating a large strm->next_out buffer and copying into it.
   // (See also read_buf()).
   void flush_pending(){
+    dstate.bi_flush(); // whole bytes of the bit buffer go out too
     int len=dstate.pending;
 
     if(len>avail_out) len=avail_out;
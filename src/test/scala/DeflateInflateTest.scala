@@ -335,4 +335,853 @@ class DeflateInflateTest {
     assertThat(actual, is(data)) 
   }
 
+  @Test
+  def rle_and_fixed = {
+    val data = (0 until uncomprLen).map { i => (i/100).asInstanceOf[Byte] }.toArray
+
+    List(Z_RLE, Z_FIXED).foreach { strategy =>
+      deflater = new Deflater
+      err = deflater.init(Z_BEST_SPEED)
+      assertThat(err, is(Z_OK))
+
+      err = deflater.params(Z_BEST_SPEED, strategy)
+      assertThat(err, is(Z_OK))
+
+      deflater.setInput(data)
+      deflater.setOutput(compr)
+
+      err = deflater.deflate(Z_FINISH)
+      assertThat(err, is(Z_STREAM_END))
+
+      err = deflater.end
+      assertThat(err, is(Z_OK))
+
+      inflater = new Inflater
+      inflater.setInput(compr)
+      inflater.setOutput(uncompr)
+
+      err = inflater.inflate(Z_NO_FLUSH)
+      assertThat(err, is(Z_STREAM_END))
+
+      err = inflater.end
+      assertThat(err, is(Z_OK))
+
+      assertThat(inflater.total_out.asInstanceOf[Int], is(data.length))
+      assertThat(uncompr, is(data))
+    }
+  }
+
+  @Test
+  def mem_levels = {
+    // several window slides, with matches reaching back across them
+    val r = new java.util.Random(1)
+    val words = (0 until 500).map { i => ("w" + r.nextInt(100000) + " ").getBytes }
+    val data = (0 until 40000).flatMap { i => words(r.nextInt(words.length)) }.toArray
+    val compr = new Array[Byte](data.length)
+    val uncompr = new Array[Byte](data.length)
+
+    List(1, 7, 8, 9).foreach { memLevel =>
+      List(Z_BEST_SPEED, 4, Z_DEFAULT_COMPRESSION, Z_BEST_COMPRESSION).foreach { level =>
+        deflater = new Deflater(level, MAX_WBITS, memLevel)
+        deflater.setInput(data)
+        deflater.setOutput(compr)
+
+        err = deflater.deflate(Z_FINISH)
+        assertThat(err, is(Z_STREAM_END))
+
+        err = deflater.end
+        assertThat(err, is(Z_OK))
+
+        inflater = new Inflater
+        inflater.setInput(compr)
+        inflater.setOutput(uncompr)
+
+        err = inflater.inflate(Z_NO_FLUSH)
+        assertThat(err, is(Z_STREAM_END))
+
+        err = inflater.end
+        assertThat(err, is(Z_OK))
+
+        assertThat(uncompr, is(data))
+      }
+    }
+  }
+
+  @Test
+  def flushes_across_slides = {
+    // small inputs with flushes leave less than MIN_MATCH bytes of
+    // lookahead as the window slides under a 1KB window
+    val r = new java.util.Random(6)
+    val data = new Array[Byte](60000)
+    var i = 0
+    while(i < data.length){
+      val b = r.nextInt(if(r.nextBoolean) 4 else 256).asInstanceOf[Byte]
+      (0 until 1+r.nextInt(40)).foreach { k => if(i < data.length){ data(i) = b; i += 1 } }
+    }
+    val flushes = Array(Z_NO_FLUSH, Z_PARTIAL_FLUSH, Z_SYNC_FLUSH, Z_FULL_FLUSH)
+    val buf = new Array[Byte](200)
+    val compr = new java.io.ByteArrayOutputStream
+    val uncompr = new Array[Byte](data.length)
+
+    List(1, 9).foreach { memLevel =>
+      (1 to 9).foreach { level =>
+        deflater = new Deflater(level, 10, memLevel)
+        compr.reset
+        var pos = 0
+        var flush = Z_NO_FLUSH
+        while(flush != Z_FINISH){
+          val n = Math.min(data.length-pos,
+                           if(r.nextInt(4) == 0) 1+r.nextInt(600) else 1+r.nextInt(3))
+          deflater.setInput(data, pos, n, false)
+          pos += n
+          flush = if(pos == data.length) Z_FINISH else flushes(r.nextInt(4))
+          do {
+            deflater.setOutput(buf, 0, buf.length)
+            err = deflater.deflate(flush)
+            compr.write(buf, 0, buf.length-deflater.avail_out)
+          } while(deflater.avail_out == 0)
+        }
+        assertThat(err, is(Z_STREAM_END))
+
+        err = deflater.end
+        assertThat(err, is(Z_OK))
+
+        inflater = new Inflater
+        inflater.setInput(compr.toByteArray)
+        inflater.setOutput(uncompr)
+
+        err = inflater.inflate(Z_NO_FLUSH)
+        assertThat(err, is(Z_STREAM_END))
+
+        err = inflater.end
+        assertThat(err, is(Z_OK))
+
+        assertThat(uncompr, is(data))
+      }
+    }
+  }
+
+  @Test
+  def deflate_bound = {
+    // incompressible data must still fit in deflateBound bytes
+    val data = new Array[Byte](100000)
+    new java.util.Random(2).nextBytes(data)
+    val uncompr = new Array[Byte](data.length)
+
+    List(-MAX_WBITS, MAX_WBITS, MAX_WBITS+16).foreach { bits =>
+      List(Z_NO_COMPRESSION, Z_BEST_SPEED, Z_DEFAULT_COMPRESSION).foreach { level =>
+        deflater = new Deflater(level, bits)
+        val bound = deflater.deflateBound(data.length)
+        val compr = new Array[Byte](bound.asInstanceOf[Int])
+
+        // compress resets the stream, so it may be called again
+        List(1, 2).foreach { i =>
+          val len = deflater.compress(data, 0, data.length, compr, 0)
+          assertThat(len > 0, is(true))
+          assertThat(deflater.finished, is(true))
+          // the whole wrapper is still counted once the trailer is written
+          assertThat(deflater.deflateBound(data.length) >= bound, is(true))
+
+          inflater = new Inflater
+          err = inflater.init(bits)
+          assertThat(err, is(Z_OK))
+          inflater.setInput(compr, 0, len, false)
+          inflater.setOutput(uncompr)
+
+          err = inflater.inflate(Z_NO_FLUSH)
+          assertThat(err, is(Z_STREAM_END))
+
+          err = inflater.end
+          assertThat(err, is(Z_OK))
+
+          assertThat(uncompr, is(data))
+        }
+
+        err = deflater.end
+        assertThat(err, is(Z_OK))
+      }
+    }
+  }
+
+  @Test
+  def deflate_bound_with_splits = {
+    // every 2048 bytes the literals move to another half of the byte
+    // values, so blocks are split often and most of them end up stored
+    val r = new java.util.Random(15)
+    val data = (0 until 200000).map { i =>
+      (if(r.nextBoolean) (i/2048%2)*128+r.nextInt(128) else r.nextInt(256)).asInstanceOf[Byte]
+    }.toArray
+    val uncompr = new Array[Byte](data.length)
+
+    (2 to 9).foreach { level =>
+      deflater = new Deflater(level)
+      val compr = new Array[Byte](deflater.deflateBound(data.length).asInstanceOf[Int])
+      val len = deflater.compress(data, 0, data.length, compr, 0)
+      assertThat(len > 0, is(true))
+
+      err = deflater.end
+      assertThat(err, is(Z_OK))
+
+      inflater = new Inflater
+      inflater.setInput(compr, 0, len, false)
+      inflater.setOutput(uncompr)
+
+      err = inflater.inflate(Z_NO_FLUSH)
+      assertThat(err, is(Z_STREAM_END))
+
+      err = inflater.end
+      assertThat(err, is(Z_OK))
+
+      assertThat(uncompr, is(data))
+    }
+  }
+
+  @Test
+  def one_call_helpers = {
+    val data = (0 until uncomprLen).map { i => (i%251/7).asInstanceOf[Byte] }.toArray
+
+    // the second round reuses the codecs cached by the first
+    List(1, 2).foreach { i =>
+      List(Z_DEFAULT_COMPRESSION, Z_BEST_SPEED, Z_BEST_COMPRESSION).foreach { level =>
+        assertThat(JZlib.uncompress(JZlib.compress(data, level)), is(data))
+        assertThat(JZlib.gunzip(JZlib.gzip(data, level)), is(data))
+      }
+    }
+
+    val compr = JZlib.compress(data)
+    try {
+      JZlib.uncompress(compr, 0, compr.length-1)
+      fail("truncated input")
+    }
+    catch {
+      case e: GZIPException =>
+    }
+  }
+
+  @Test
+  def deflate_tune = {
+    val r = new java.util.Random(5)
+    val words = (0 until 300).map { i => ("w" + r.nextInt(100000) + " ").getBytes }
+    val data = (0 until 10000).flatMap { i => words(r.nextInt(words.length)) }.toArray
+    val uncompr = new Array[Byte](data.length)
+
+    deflater = new Deflater(Z_DEFAULT_COMPRESSION)
+    val compr = new Array[Byte](deflater.deflateBound(data.length).asInstanceOf[Int])
+    val len = deflater.compress(data, 0, data.length, compr, 0)
+
+    // search as hard as level 9 does; the values are kept across compress
+    err = deflater.deflateTune(32, 258, 258, 4096)
+    assertThat(err, is(Z_OK))
+    List(1, 2).foreach { i =>
+      val tunedLen = deflater.compress(data, 0, data.length, compr, 0)
+      assertThat(tunedLen < len, is(true))
+
+      inflater = new Inflater
+      inflater.setInput(compr, 0, tunedLen, false)
+      inflater.setOutput(uncompr)
+      err = inflater.inflate(Z_NO_FLUSH)
+      assertThat(err, is(Z_STREAM_END))
+      assertThat(uncompr, is(data))
+    }
+
+    err = deflater.deflateTune(8, 16, 128, 0)
+    assertThat(err, is(Z_STREAM_ERROR))
+  }
+
+  @Test
+  def block_flush_and_prime = {
+    val msgs = (0 until 20).map { i => ("message " + i + ", hello, hello!").getBytes }
+    val data = msgs.flatten.toArray
+
+    err = deflater.init(Z_DEFAULT_COMPRESSION, -MAX_WBITS)
+    assertThat(err, is(Z_OK))
+    deflater.setOutput(compr)
+
+    // an empty static block: not last, type 01, then the 7 bit end of block
+    err = deflater.deflatePrime(10, 2)
+    assertThat(err, is(Z_OK))
+    assertThat(deflater.deflatePending, is(1))
+    assertThat(deflater.deflatePendingBits, is(2))
+
+    msgs.foreach { msg =>
+      deflater.setInput(msg)
+      err = deflater.deflate(Z_BLOCK)
+      assertThat(err, is(Z_OK))
+      assertThat(deflater.deflatePending, is(0))
+      assertThat(deflater.deflatePendingBits < 8, is(true))
+    }
+
+    err = deflater.deflate(Z_FINISH)
+    assertThat(err, is(Z_STREAM_END))
+    err = deflater.end
+    assertThat(err, is(Z_OK))
+
+    inflater.setInput(compr)
+    inflater.setOutput(uncompr)
+    err = inflater.init(-MAX_WBITS)
+    assertThat(err, is(Z_OK))
+
+    err = inflater.inflate(Z_NO_FLUSH)
+    assertThat(err, is(Z_STREAM_END))
+
+    val actual = new Array[Byte](inflater.total_out.asInstanceOf[Int])
+    System.arraycopy(uncompr, 0, actual, 0, actual.length)
+    assertThat(actual, is(data))
+  }
+
+  @Test
+  def long_matches = {
+    // long runs, coded mostly as matches of the maximum length 258
+    val data = (0 until uncomprLen).map { i => (i/3000).asInstanceOf[Byte] }.toArray
+
+    (1 to 9).foreach { level =>
+      deflater = new Deflater
+      err = deflater.init(level)
+      assertThat(err, is(Z_OK))
+
+      deflater.setInput(data)
+      deflater.setOutput(compr)
+
+      err = deflater.deflate(Z_FINISH)
+      assertThat(err, is(Z_STREAM_END))
+
+      err = deflater.end
+      assertThat(err, is(Z_OK))
+
+      inflater = new Inflater
+      inflater.setInput(compr)
+      inflater.setOutput(uncompr)
+
+      err = inflater.inflate(Z_NO_FLUSH)
+      assertThat(err, is(Z_STREAM_END))
+
+      err = inflater.end
+      assertThat(err, is(Z_OK))
+
+      assertThat(uncompr, is(data))
+    }
+  }
+
+  @Test
+  def optimal_level = {
+    val r = new java.util.Random(7)
+    val words = (0 until 500).map { i => ("w" + r.nextInt(100000) + " ").getBytes }
+    val data = (0 until 20000).flatMap { i => words(r.nextInt(words.length)) }.toArray
+    val uncompr = new Array[Byte](data.length)
+
+    deflater = new Deflater(Z_BEST_COMPRESSION)
+    val compr = new Array[Byte](deflater.deflateBound(data.length).asInstanceOf[Int])
+    val len = deflater.compress(data, 0, data.length, compr, 0)
+
+    deflater = new Deflater(Z_OPTIMAL_COMPRESSION)
+    val optimalLen = deflater.compress(data, 0, data.length, compr, 0)
+    assertThat(optimalLen < len, is(true))
+
+    inflater = new Inflater
+    inflater.setInput(compr, 0, optimalLen, false)
+    inflater.setOutput(uncompr)
+    err = inflater.inflate(Z_NO_FLUSH)
+    assertThat(err, is(Z_STREAM_END))
+    assertThat(uncompr, is(data))
+
+    // a small output buffer makes deflate resume in the middle of a chunk
+    deflater = new Deflater(Z_OPTIMAL_COMPRESSION)
+    deflater.setInput(data)
+    var n = 0
+    do {
+      deflater.setOutput(compr, n, 100)
+      err = deflater.deflate(Z_FINISH)
+      n = deflater.total_out.asInstanceOf[Int]
+    } while (err == Z_OK)
+    assertThat(err, is(Z_STREAM_END))
+    assertThat(n, is(optimalLen))
+  }
+
+  @Test
+  def optimal_level_strategies = {
+    // four letters in turn: two bits a literal, and next to nothing as
+    // matches
+    val data = (0 until 100000).map { i => ('a' + i%4).asInstanceOf[Byte] }.toArray
+    val uncompr = new Array[Byte](data.length)
+
+    List(Z_HUFFMAN_ONLY, Z_FILTERED, Z_FIXED).foreach { strategy =>
+      deflater = new Deflater(Z_OPTIMAL_COMPRESSION)
+      assertThat(deflater.params(Z_OPTIMAL_COMPRESSION, strategy), is(Z_OK))
+      val compr = new Array[Byte](deflater.deflateBound(data.length).asInstanceOf[Int])
+      val len = deflater.compress(data, 0, data.length, compr, 0)
+      assertThat(len > 0, is(true))
+      if(strategy == Z_HUFFMAN_ONLY)
+        assertThat(len >= data.length/4, is(true))  // literals only
+      else
+        assertThat(len < 1000, is(true))
+
+      inflater = new Inflater
+      inflater.setInput(compr, 0, len, false)
+      inflater.setOutput(uncompr)
+      err = inflater.inflate(Z_NO_FLUSH)
+      assertThat(err, is(Z_STREAM_END))
+      assertThat(uncompr, is(data))
+    }
+  }
+
+  @Test
+  def block_splitting = {
+    // text, then noise, then text again, so that the blocks may be
+    // ended where the statistics change
+    val r = new java.util.Random(11)
+    val text = (0 until 15000).map { i => "abcdefgh ".charAt(r.nextInt(9)).asInstanceOf[Byte] }
+    val noise = (0 until 10000).map { i => r.nextInt(256).asInstanceOf[Byte] }
+    val data = (text ++ noise ++ text).toArray
+    val uncompr = new Array[Byte](data.length)
+
+    def deflate(level: Int, split: Boolean) = {
+      deflater = new Deflater(level)
+      deflater.dstate.split_blocks = split
+      val compr = new Array[Byte](deflater.deflateBound(data.length).asInstanceOf[Int])
+      deflater.setInput(data)
+      deflater.setOutput(compr)
+      assertThat(deflater.deflate(Z_FINISH), is(Z_STREAM_END))
+      (compr, deflater.total_out.asInstanceOf[Int])
+    }
+
+    List(2, 6, 9).foreach { level =>
+      val (compr, len) = deflate(level, true)
+      // the blocks ended at the noise pay off
+      assertThat(len < deflate(level, false)._2, is(true))
+
+      inflater = new Inflater
+      inflater.setInput(compr, 0, len, false)
+      inflater.setOutput(uncompr)
+      err = inflater.inflate(Z_NO_FLUSH)
+      assertThat(err, is(Z_STREAM_END))
+      assertThat(uncompr, is(data))
+    }
+
+    // blocks coded with the fixed trees are not split
+    deflater = new Deflater(6)
+    assertThat(deflater.params(6, Z_FIXED), is(Z_OK))
+    assertThat(deflater.dstate.split_blocks, is(false))
+  }
+
+  @Test
+  def pools = {
+    val data = (0 until uncomprLen).map { i => (i%251/7).asInstanceOf[Byte] }.toArray
+    val deflaters = new DeflaterPool(2)
+    val inflaters = new InflaterPool(2)
+
+    List(15, -15, 15+16).foreach { bits =>
+      var window: Array[Byte] = null
+      List(1, 2, 3).foreach { i =>
+        deflater = deflaters.acquire(Z_BEST_SPEED, bits)
+        // the second and third streams reuse the buffers of the first
+        if(window == null) window = deflater.dstate.window
+        assertThat(deflater.dstate.window eq window, is(true))
+
+        deflater.setInput(data)
+        deflater.setOutput(compr)
+        err = deflater.deflate(Z_FINISH)
+        assertThat(err, is(Z_STREAM_END))
+        val len = deflater.total_out.asInstanceOf[Int]
+        deflaters.release(deflater)
+
+        inflater = inflaters.acquire(bits)
+        inflater.setInput(compr, 0, len, false)
+        inflater.setOutput(uncompr)
+        inflater.inflate(Z_FINISH)
+        assertThat(inflater.total_out.asInstanceOf[Int], is(data.length))
+        assertThat(uncompr, is(data))
+        inflaters.release(inflater)
+      }
+    }
+
+    // an ended Deflater is not pooled
+    deflater = deflaters.acquire(Z_BEST_SPEED)
+    deflater.end
+    deflaters.release(deflater)
+    assertThat(deflaters.acquire(Z_BEST_SPEED) eq deflater, is(false))
+  }
+
+  @Test
+  def allocator = {
+    var held = 0L
+    var fail = false
+    val alloc = new Allocator {
+      def allocBytes(size: Int) =
+        if(fail) null else { held += size; new Array[Byte](size) }
+      def allocShorts(size: Int) =
+        if(fail) null else { held += 2*size; new Array[Short](size) }
+      def allocInts(size: Int) =
+        if(fail) null else { held += 4*size; new Array[Int](size) }
+      def free(buf: Array[Byte]) = held -= buf.length
+      def free(buf: Array[Short]) = held -= 2*buf.length
+      def free(buf: Array[Int]) = held -= 4*buf.length
+    }
+
+    val data = (0 until uncomprLen).map { i => (i%251/7).asInstanceOf[Byte] }.toArray
+
+    deflater = new Deflater(Z_DEFAULT_COMPRESSION, 15, 8, alloc)
+    // the window with its 8 bytes of slack, hash chains and pending buffer
+    assertThat(held, is(4*32768L + 8 + 4*32768 + 4*32768 + 4*16384))
+    deflater.setInput(data)
+    deflater.setOutput(compr)
+    err = deflater.deflate(Z_FINISH)
+    assertThat(err, is(Z_STREAM_END))
+    val len = deflater.total_out.asInstanceOf[Int]
+
+    val copy = new Deflater(alloc)
+    assertThat(copy.copy(deflater), is(Z_OK))
+    deflater.end
+    copy.end
+    assertThat(held, is(0L))
+
+    inflater = new Inflater(15, false, alloc)
+    assertThat(held > 32768L, is(true))
+    inflater.setInput(compr, 0, len, false)
+    inflater.setOutput(uncompr)
+    err = inflater.inflate(Z_FINISH)
+    assertThat(err, is(Z_STREAM_END))
+    assertThat(uncompr, is(data))
+    inflater.end
+    assertThat(held, is(0L))
+
+    fail = true
+    deflater = new Deflater(alloc)
+    assertThat(deflater.init(Z_DEFAULT_COMPRESSION), is(Z_MEM_ERROR))
+    assertThat(held, is(0L))
+  }
+
+  @Test
+  def prepared_dictionary = {
+    val dictionary = (0 until 40000).map { i => (i*i%61+32).asInstanceOf[Byte] }.toArray
+    val data = dictionary.slice(1000, 3000)
+
+    List((15, 8), (15, 9), (-12, 7), (15+16, 1)).foreach { case (bits, memLevel) =>
+      val prepared = new PreparedDictionary(dictionary, dictionary.length,
+                                            bits, memLevel)
+      (1 to 10).foreach { level =>
+        // the output is the same as with the plain dictionary
+        val expected = new Array[Byte](comprLen)
+        deflater = new Deflater(level, bits, memLevel)
+        deflater.setDictionary(dictionary, dictionary.length)
+        deflater.setInput(data)
+        deflater.setOutput(expected)
+        err = deflater.deflate(Z_FINISH)
+        assertThat(err, is(Z_STREAM_END))
+        val len = deflater.total_out.asInstanceOf[Int]
+        val adler = deflater.getAdler
+        deflater.end
+
+        deflater = new Deflater(level, bits, memLevel)
+        err = deflater.setDictionary(prepared)
+        assertThat(err, is(Z_OK))
+        deflater.setInput(data)
+        deflater.setOutput(compr)
+        err = deflater.deflate(Z_FINISH)
+        assertThat(err, is(Z_STREAM_END))
+        assertThat(deflater.total_out.asInstanceOf[Int], is(len))
+        assertThat(compr.take(len), is(expected.take(len)))
+        assertThat(deflater.getAdler, is(adler))
+        deflater.end
+      }
+    }
+
+    // a stream with another memLevel inserts the dictionary as usual
+    val prepared = new PreparedDictionary(dictionary)
+    deflater = new Deflater(Z_DEFAULT_COMPRESSION, 15, 9)
+    err = deflater.setDictionary(prepared)
+    assertThat(err, is(Z_OK))
+    assertThat(deflater.getAdler, is(prepared.getAdler))
+    deflater.end
+  }
+
+  @Test
+  def shared_inflate_dictionary = {
+    val dictionary = (0 until 40000).map { i => (i*i%61+32).asInstanceOf[Byte] }.toArray
+    val prepared = new PreparedDictionary(dictionary)
+
+    List(100, 3000, 40000).foreach { len =>
+      val data = dictionary.slice(500, 500+len)
+      deflater = new Deflater(Z_DEFAULT_COMPRESSION)
+      deflater.setDictionary(prepared)
+      deflater.setInput(data)
+      deflater.setOutput(compr)
+      err = deflater.deflate(Z_FINISH)
+      assertThat(err, is(Z_STREAM_END))
+      deflater.end
+
+      // small output buffers, so that copies stop halfway
+      List(7, uncomprLen).foreach { size =>
+        inflater = new Inflater
+        inflater.setInput(compr)
+        val out = new java.io.ByteArrayOutputStream
+        var loop = true
+        while(loop) {
+          inflater.setOutput(uncompr, 0, size)
+          err = inflater.inflate(Z_NO_FLUSH)
+          out.write(uncompr, 0, size-inflater.avail_out)
+          err match {
+            case Z_STREAM_END =>
+              loop = false
+            case Z_NEED_DICT =>
+              err = inflater.setDictionary(prepared)
+              assertThat(err, is(Z_OK))
+            case _ =>
+              assertThat(err, is(Z_OK))
+          }
+        }
+        inflater.end
+        assertThat(out.toByteArray, is(data))
+      }
+    }
+  }
+
+  @Test
+  def dictionary_trainer = {
+    val random = new java.util.Random(1)
+    def sample = ("{\"id\":" + random.nextInt(100000) +
+                  ",\"name\":\"user" + random.nextInt(100) +
+                  "\",\"roles\":[\"member\",\"reader\"],\"active\":" +
+                  random.nextBoolean + "}").getBytes
+
+    val trainer = new DictionaryTrainer(4096)
+    (0 until 1000).foreach { i => trainer.addSample(sample) }
+    val dictionary = trainer.train
+    assertThat(dictionary.length > 0, is(true))
+    assertThat(dictionary.length <= 4096, is(true))
+
+    val held = new java.util.ArrayList[Array[Byte]]
+    (0 until 100).foreach { i => held.add(sample) }
+    val plain = DictionaryTrainer.compressedSize(null, held, 6)
+    val trained = DictionaryTrainer.compressedSize(dictionary, held, 6)
+    assertThat(trained < plain/2, is(true))
+
+    // an incompressible sample, much larger than the output buffer
+    val noise = new Array[Byte](100000)
+    random.nextBytes(noise)
+    val large = new java.util.ArrayList[Array[Byte]]
+    large.add(noise)
+    assertThat(DictionaryTrainer.compressedSize(null, large, 6) > noise.length, is(true))
+
+    // the dictionary is a plain preset dictionary
+    val data = held.get(0)
+    deflater = new Deflater(Z_DEFAULT_COMPRESSION)
+    deflater.setDictionary(dictionary, dictionary.length)
+    deflater.setInput(data)
+    deflater.setOutput(compr)
+    err = deflater.deflate(Z_FINISH)
+    assertThat(err, is(Z_STREAM_END))
+    deflater.end
+
+    inflater = new Inflater
+    inflater.setInput(compr)
+    inflater.setOutput(uncompr)
+    err = inflater.inflate(Z_NO_FLUSH)
+    assertThat(err, is(Z_NEED_DICT))
+    err = inflater.setDictionary(dictionary, dictionary.length)
+    assertThat(err, is(Z_OK))
+    err = inflater.inflate(Z_FINISH)
+    assertThat(err, is(Z_STREAM_END))
+    assertThat(uncompr.take(data.length), is(data))
+    inflater.end
+  }
+
+  @Test
+  def snapshot_and_restore = {
+    val random = new java.util.Random(2)
+    def record(n: Int) = (0 until n).map { i => (random.nextInt(20)+'a').asInstanceOf[Byte] }.toArray
+    val records = (0 until 20).map { i => record(if(i%5 == 0) 50000 else 1000) }
+    val trial = record(100000)
+
+    List(Z_NO_FLUSH, Z_SYNC_FLUSH, Z_FULL_FLUSH).foreach { flush =>
+      // the same records, with and without trials which are taken back
+      val expected = new Array[Byte](2000000)
+      val actual = new Array[Byte](2000000)
+      List(false, true).foreach { trials =>
+        val out = if(trials) actual else expected
+        deflater = new Deflater(Z_DEFAULT_COMPRESSION)
+        records.foreach { r =>
+          if(trials){
+            val snapshot = deflater.snapshot
+            deflater.setInput(trial)
+            deflater.setOutput(new Array[Byte](200000))
+            deflater.deflate(flush)
+            assertThat(deflater.restore(snapshot), is(Z_OK))
+          }
+          deflater.setInput(r)
+          deflater.setOutput(out, deflater.total_out.asInstanceOf[Int],
+                             out.length-deflater.total_out.asInstanceOf[Int])
+          err = deflater.deflate(flush)
+          assertThat(err, is(Z_OK))
+        }
+        deflater.setOutput(out, deflater.total_out.asInstanceOf[Int],
+                           out.length-deflater.total_out.asInstanceOf[Int])
+        err = deflater.deflate(Z_FINISH)
+        assertThat(err, is(Z_STREAM_END))
+        deflater.end
+      }
+      assertThat(actual, is(expected))
+    }
+  }
+
+  @Test
+  def checkpoint_and_resume = {
+    val random = new java.util.Random(3)
+    def record(n: Int) = (0 until n).map { i => (random.nextInt(20)+'a').asInstanceOf[Byte] }.toArray
+    val records = (0 until 10).map { i => record(if(i%5 == 0) 50000 else 1000) }
+
+    List(Z_SYNC_FLUSH, Z_FULL_FLUSH).foreach { flush =>
+      def rest(deflater: Deflater) = {
+        val out = new Array[Byte](1000000)
+        deflater.setOutput(out)
+        records.drop(5).foreach { r =>
+          deflater.setInput(r)
+          assertThat(deflater.deflate(flush), is(Z_OK))
+        }
+        assertThat(deflater.deflate(Z_FINISH), is(Z_STREAM_END))
+        out.take(deflater.next_out_index)
+      }
+
+      deflater = new Deflater(Z_DEFAULT_COMPRESSION)
+      deflater.setOutput(new Array[Byte](1000000))
+      records.take(5).foreach { r =>
+        deflater.setInput(r)
+        assertThat(deflater.deflate(flush), is(Z_OK))
+      }
+      val checkpoint = deflater.checkpoint(true)
+      val expected = rest(deflater)
+      val total_in = deflater.total_in
+      deflater.end
+
+      val resumed = new Deflater
+      assertThat(resumed.resume(checkpoint), is(Z_OK))
+      assertThat(rest(resumed), is(expected))
+      assertThat(resumed.total_in, is(total_in))
+      resumed.end
+    }
+
+    // after a full flush, only the state is saved
+    deflater = new Deflater(Z_DEFAULT_COMPRESSION)
+    deflater.setInput(records(0))
+    deflater.setOutput(new Array[Byte](100000))
+    assertThat(deflater.deflate(Z_FULL_FLUSH), is(Z_OK))
+    assertThat(deflater.checkpoint(false).length < 1000, is(true))
+    deflater.end
+  }
+
+  @Test
+  def inflate_checkpoint_and_resume = {
+    val random = new java.util.Random(4)
+    val data = (0 until 200000).map { i => (random.nextInt(20)+'a').asInstanceOf[Byte] }.toArray
+
+    List(15, 31).foreach { w =>
+      deflater = new Deflater(Z_DEFAULT_COMPRESSION, w)
+      val compr = new Array[Byte](data.length)
+      deflater.setInput(data)
+      deflater.setOutput(compr)
+      assertThat(deflater.deflate(Z_FINISH), is(Z_STREAM_END))
+      val comprLen = deflater.total_out.asInstanceOf[Int]
+      deflater.end
+
+      // inflate 1000 bytes at a time, from a new Inflater each time
+      val uncompr = new Array[Byte](data.length)
+      inflater = new Inflater(w)
+      inflater.setOutput(uncompr)
+      err = Z_OK
+      while(err == Z_OK){
+        inflater.setInput(compr, inflater.total_in.asInstanceOf[Int],
+                          Math.min(1000, comprLen-inflater.total_in.asInstanceOf[Int]),
+                          false)
+        err = inflater.inflate(Z_NO_FLUSH)
+        if(err == Z_OK){
+          val checkpoint = inflater.checkpoint
+          val next_out_index = inflater.next_out_index
+          inflater.end
+          inflater = new Inflater
+          assertThat(inflater.resume(checkpoint), is(Z_OK))
+          inflater.setOutput(uncompr, next_out_index, data.length-next_out_index)
+        }
+      }
+      assertThat(err, is(Z_STREAM_END))
+      assertThat(inflater.total_out, is(data.length.asInstanceOf[Long]))
+      assertThat(uncompr, is(data))
+      inflater.end
+    }
+  }
+
+  @Test
+  def inflate_with_engine64 = {
+    val random = new java.util.Random(5)
+    val data = (0 until 300000).map { i =>
+      (if(i % 3 == 0) random.nextInt else random.nextInt(8)+'a').asInstanceOf[Byte]
+    }.toArray
+
+    List(9, 15, 31).foreach { w =>
+      deflater = new Deflater(Z_DEFAULT_COMPRESSION, w)
+      val compr = new Array[Byte](data.length*2)
+      deflater.setInput(data)
+      deflater.setOutput(compr)
+      assertThat(deflater.deflate(Z_FINISH), is(Z_STREAM_END))
+      val comprLen = deflater.total_out.asInstanceOf[Int]
+      deflater.end
+
+      // 100 bytes in and 1000 bytes out at a time, and a checkpoint
+      val uncompr = new Array[Byte](data.length)
+      inflater = new Inflater
+      inflater.setEngine64(true)
+      assertThat(inflater.init(w), is(Z_OK))
+      err = Z_OK
+      while(err == Z_OK){
+        val in = inflater.total_in.asInstanceOf[Int]
+        val out = inflater.total_out.asInstanceOf[Int]
+        inflater.setInput(compr, in, Math.min(100, comprLen-in), false)
+        inflater.setOutput(uncompr, out, Math.min(1000, data.length-out))
+        err = inflater.inflate(Z_NO_FLUSH)
+        if(err == Z_OK && in < 5000 && inflater.total_in >= 5000){
+          val checkpoint = inflater.checkpoint
+          inflater.end
+          val unknown = checkpoint.clone
+          unknown(4) = 3    // the version after the magic number
+          assertThat(new Inflater().resume(unknown), is(Z_VERSION_ERROR))
+          unknown(4) = 1    // before the engine flag
+          assertThat(new Inflater().resume(unknown), is(Z_VERSION_ERROR))
+          inflater = new Inflater
+          assertThat(inflater.resume(checkpoint), is(Z_OK))
+        }
+      }
+      assertThat(err, is(Z_STREAM_END))
+      assertThat(inflater.total_out, is(data.length.asInstanceOf[Long]))
+      assertThat(uncompr, is(data))
+      inflater.end
+    }
+  }
+
+  @Test
+  def inflate_literal_pairs_with_engine64 = {
+    val random = new java.util.Random(6)
+    val data = (0 until 100000).map { i =>
+      (if(random.nextInt(50) == 0) random.nextInt else random.nextInt(5)+'a').asInstanceOf[Byte]
+    }.toArray
+
+    // mostly literals, coded with dynamic and with fixed trees
+    List(Z_HUFFMAN_ONLY, Z_FIXED).foreach { strategy =>
+      deflater = new Deflater(Z_DEFAULT_COMPRESSION)
+      assertThat(deflater.params(Z_DEFAULT_COMPRESSION, strategy), is(Z_OK))
+      val compr = new Array[Byte](data.length*2)
+      deflater.setInput(data)
+      deflater.setOutput(compr)
+      assertThat(deflater.deflate(Z_FINISH), is(Z_STREAM_END))
+      val comprLen = deflater.total_out.asInstanceOf[Int]
+      deflater.end
+
+      val uncompr = new Array[Byte](data.length)
+      inflater = new Inflater
+      inflater.setEngine64(true)
+      assertThat(inflater.init, is(Z_OK))
+      inflater.setInput(compr, 0, comprLen, false)
+      inflater.setOutput(uncompr)
+      assertThat(inflater.inflate(Z_NO_FLUSH), is(Z_STREAM_END))
+      assertThat(uncompr, is(data))
+      inflater.end
+    }
+  }
 }
@@ -0,0 +1,82 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+package com.jcraft.jzlib
+
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import org.junit.{Test, Before}
+import org.junit.Assert._
+import org.hamcrest.CoreMatchers._
+
+import java.io._
+
+import JZlib._
+
+@RunWith(classOf[JUnit4])
+class ParallelDeflaterOutputStreamTest {
+
+  @Before
+  def setUp = {
+  }
+
+  @Test
+  def read_write = {
+    val data1 = textbuf(1024*1024)
+
+    val baos = new ByteArrayOutputStream
+    val dos = new ParallelDeflaterOutputStream(baos, Z_DEFAULT_COMPRESSION,
+                                               64*1024, 4)
+    data1.grouped(10000).foreach { b => dos.write(b) }
+    dos.close
+
+    val bais = new ByteArrayInputStream(baos.toByteArray)
+    val dis = new InflaterInputStream(bais)
+    val baos2 = new ByteArrayOutputStream
+    val buf = new Array[Byte](1024)
+    Stream.continually(dis.read(buf)).
+                      takeWhile(-1 !=).foreach(i => baos2.write(buf, 0, i))
+
+    assertThat(baos2.toByteArray, is(data1))
+  }
+
+  @Test
+  def same_header_and_trailer = {
+    val data1 = textbuf(100*1024)
+
+    val baos1 = new ByteArrayOutputStream
+    val dos1 = new DeflaterOutputStream(baos1)
+    dos1.write(data1)
+    dos1.close
+    val serial = baos1.toByteArray
+
+    val baos2 = new ByteArrayOutputStream
+    val dos2 = new ParallelDeflaterOutputStream(baos2)
+    dos2.write(data1)
+    dos2.close
+    val parallel = baos2.toByteArray
+
+    assertThat(parallel.take(2).toList, is(serial.take(2).toList))
+    assertThat(parallel.takeRight(4).toList, is(serial.takeRight(4).toList))
+  }
+
+  @Test
+  def deterministic = {
+    val data1 = textbuf(500*1024)
+
+    val outputs = List(1, 3).map { threads =>
+      val baos = new ByteArrayOutputStream
+      val dos = new ParallelDeflaterOutputStream(baos, Z_BEST_COMPRESSION,
+                                                 32*1024, threads)
+      dos.write(data1)
+      dos.close
+      baos.toByteArray
+    }
+
+    assertThat(outputs(1), is(outputs(0)))
+  }
+
+  private def textbuf(n: Int) = {
+    val words = List("hello ", "world ", "jzlib ", "deflate ", "zlib ", "\n")
+    Iterator.continually(words(scala.util.Random.nextInt(words.length))).
+             flatMap(_.getBytes).take(n).toArray
+  }
+}
@@ -0,0 +1,123 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+package com.jcraft.jzlib
+
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import org.junit.{Test, Before}
+import org.junit.Assert._
+import org.hamcrest.CoreMatchers._
+
+import java.io._
+
+import JZlib._
+
+@RunWith(classOf[JUnit4])
+class ParallelGZIPOutputStreamTest {
+
+  @Before
+  def setUp = {
+  }
+
+  @Test
+  def outstream = {
+    val data1 = textbuf(1024*1024)
+
+    val baos = new ByteArrayOutputStream
+    val gos = new ParallelGZIPOutputStream(baos, Z_DEFAULT_COMPRESSION,
+                                           64*1024, 4)
+    gos.setName("/tmp/foo")
+    gos.write(data1)
+    gos.close
+
+    val data2 = gunzip(baos.toByteArray)
+
+    assertThat(data2.length, is(data1.length))
+    assertThat(data2, is(data1))
+
+    val crc32 = new CRC32
+    crc32.update(data1, 0, data1.length)
+    assertThat(gos.getCRC, is(crc32.getValue))
+  }
+
+  @Test
+  def juz_compat = {
+    val data1 = textbuf(300*1024)
+
+    val baos = new ByteArrayOutputStream
+    val gos = new ParallelGZIPOutputStream(baos)
+    gos.write(data1)
+    gos.close
+
+    val gis = new java.util.zip.GZIPInputStream(
+                new ByteArrayInputStream(baos.toByteArray))
+    val baos2 = new ByteArrayOutputStream
+    val buf = new Array[Byte](1024)
+    Stream.continually(gis.read(buf)).
+                      takeWhile(-1 !=).foreach(i => baos2.write(buf, 0, i))
+
+    assertThat(baos2.toByteArray, is(data1))
+  }
+
+  @Test
+  def deterministic = {
+    val data1 = textbuf(500*1024)
+
+    val outputs = List(1, 2, 8).map { threads =>
+      val baos = new ByteArrayOutputStream
+      val gos = new ParallelGZIPOutputStream(baos, Z_BEST_SPEED,
+                                             40*1024, threads)
+      data1.grouped(7000).foreach { b => gos.write(b) }
+      gos.close
+      baos.toByteArray
+    }
+
+    outputs.foreach { o => assertThat(o, is(outputs.head)) }
+  }
+
+  @Test
+  def flush = {
+    val data1 = textbuf(10*1024)
+
+    val baos = new ByteArrayOutputStream
+    val gos = new ParallelGZIPOutputStream(baos)
+    gos.setSyncFlush(true)
+    gos.write(data1)
+    gos.flush
+
+    // everything written so far must be decodable before finish().
+    val inflater = new Inflater(15+16)
+    val data2 = new Array[Byte](data1.length)
+    inflater.setInput(baos.toByteArray)
+    inflater.setOutput(data2)
+    inflater.inflate(Z_SYNC_FLUSH)
+    assertThat(inflater.total_out.asInstanceOf[Int], is(data1.length))
+    assertThat(data2, is(data1))
+
+    gos.close
+    assertThat(gunzip(baos.toByteArray), is(data1))
+  }
+
+  @Test
+  def empty = {
+    val baos = new ByteArrayOutputStream
+    val gos = new ParallelGZIPOutputStream(baos)
+    gos.close
+
+    assertThat(gunzip(baos.toByteArray).length, is(0))
+  }
+
+  private def gunzip(data: Array[Byte]) = {
+    val gis = new GZIPInputStream(new ByteArrayInputStream(data))
+    val baos = new ByteArrayOutputStream
+    val buf = new Array[Byte](1024)
+    Stream.continually(gis.read(buf)).
+                      takeWhile(-1 !=).foreach(i => baos.write(buf, 0, i))
+    baos.toByteArray
+  }
+
+  private def textbuf(n: Int) = {
+    val words = List("hello ", "world ", "jzlib ", "deflate ", "gzip ", "\n")
+    Iterator.continually(words(scala.util.Random.nextInt(words.length))).
+             flatMap(_.getBytes).take(n).toArray
+  }
+}